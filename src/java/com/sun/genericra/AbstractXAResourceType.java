@@ -51,6 +51,13 @@ public abstract class AbstractXAResourceType implements XAResourceType,
      public abstract boolean endCalled();
      
      public abstract void startDelayedXA();
+     
+    /**
+     * Brings the wrapper back to the state it had when it was created, so
+     * that it can be used for the transaction of the next message.
+     */
+    public void reset() {
+    }
     /**
      * Set the physical jms connection object associated with
      * this XAResource wrapper
@@ -97,7 +104,7 @@ public abstract class AbstractXAResourceType implements XAResourceType,
     	// This is because InboundXAResourceProxy delays the call to start() on the first resource
     	// If isSameRM() returned true, then start(join) would be called on the second resource
     	// before (start,noflags) is called on the first resource, which would cause an error
-    	if (this instanceof InboundXAResourceProxy || other instanceof InboundXAResourceProxy){
+    	if (delaysStart(this) || delaysStart(other)){
     		return false;
     	}
     	
@@ -115,6 +122,48 @@ public abstract class AbstractXAResourceType implements XAResourceType,
         return true;
     }
     
+    /**
+     * Implementation of isSameRM() for the wrappers.
+     *
+     * After compare(), the answer of the provider is cached per pair of
+     * physical connections (including a connection with itself, some
+     * providers not joining the sessions of a connection), see
+     * ResourceManagerCache.
+     *
+     * @param xar the XAResource wrapped by this object.
+     * @param xares the XAResource given to isSameRM().
+     */
+    protected boolean isSameRM(XAResource xar, XAResource xares)
+        throws XAException {
+        XAResource inxa = xares;
+        Object otherRM = xares;
+        if (xares instanceof XAResourceType) {
+            XAResourceType wrapper = (XAResourceType) xares;
+            inxa = (XAResource) wrapper.getWrappedObject();
+            if (!compare(wrapper)) {
+                return false;
+            }
+            otherRM = wrapper.getConnection();
+        }
+        Object rm = getConnection();
+        if ((rm == null) || (otherRM == null)) {
+            return xar.isSameRM(inxa);
+        }
+        ResourceManagerCache cache = ResourceManagerCache.getInstance();
+        Boolean cached = cache.get(rm, otherRM);
+        if (cached != null) {
+            return cached.booleanValue();
+        }
+        boolean result = xar.isSameRM(inxa);
+        cache.put(rm, otherRM, result);
+        return result;
+    }
+
+    private static boolean delaysStart(XAResourceType xar) {
+        return (xar instanceof InboundXAResourceProxy) &&
+            ((InboundXAResourceProxy) xar).delaysStart();
+    }
+
    /**
      * The following is a method that has been added to aid printing of XID.
      * This method of printing the XID may differ for different providers.
@@ -12,6 +12,8 @@ package com.sun.genericra;
 
 import com.sun.genericra.inbound.EndpointConsumerFactory;
 import com.sun.genericra.inbound.AbstractConsumer;
+import com.sun.genericra.inbound.AbstractJmsResourcePool;
+import com.sun.genericra.inbound.RecoveryRegistry;
 import com.sun.genericra.util.*;
 
 import java.io.Serializable;
@@ -30,6 +32,7 @@ import jakarta.resource.spi.ActivationSpec;
 import jakarta.resource.spi.BootstrapContext;
 import jakarta.resource.spi.ResourceAdapter;
 import jakarta.resource.spi.ResourceAdapterInternalException;
+import jakarta.resource.spi.UnavailableException;
 import jakarta.resource.spi.endpoint.MessageEndpointFactory;
 import jakarta.resource.spi.work.WorkManager;
 
@@ -96,6 +99,21 @@ public class GenericJMSRA extends GenericJMSRAProperties
     private transient ObjectName monitoringbean = null;
     
     private transient ResourceMonitor monitor = null;
+    
+    /**
+     * Timer used by the endpoints for periodic pool maintenance.
+     */
+    private transient Timer timer = null;
+
+    /**
+     * Executor of the message delivery works of the endpoints.
+     */
+    private transient WorkExecutor executor = null;
+
+    /**
+     * XAResources handed out for crash recovery.
+     */
+    private transient RecoveryRegistry recovery = null;
     private transient ObjectName configbean = null;
     
     /**
@@ -103,6 +121,16 @@ public class GenericJMSRA extends GenericJMSRAProperties
      */
     private String logLevel = Constants.LogLevel.INFO;
 
+    /**
+     * Where the message delivery works are run.
+     */
+    private String executionMode = Constants.ExecutionMode.WORK_MANAGER;
+
+    /**
+     * Number of threads of the RA owned pool in DedicatedPool mode.
+     */
+    private int executionPoolSize = 64;
+
     /**
      * Returns the singleton implementation of this RA.     
      *
@@ -121,6 +149,20 @@ public class GenericJMSRA extends GenericJMSRAProperties
     public void stop() {
         obf = null;
         onMessageMethod = null;
+        synchronized (this) {
+            if (timer != null) {
+                timer.cancel();
+                timer = null;
+            }
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+            if (recovery != null) {
+                recovery.close();
+                recovery = null;
+            }
+        }
         if (getMonitoring()) {
             unregisterMonitoringMBean();
         }
@@ -210,7 +252,11 @@ public class GenericJMSRA extends GenericJMSRAProperties
         consumer.start();        
         if ((getMonitoring()) && (monitor != null))  {
             if (consumer.getSpec().getApplicationName() != null) {  
-                monitor.addPool(consumer.getSpec().getApplicationName(), consumer.getPool());
+                String name = consumer.getSpec().getApplicationName();
+                List<? extends AbstractJmsResourcePool> pools = consumer.getPools();
+                for (int i = 0; i < pools.size(); i++) {
+                    monitor.addPool(getMonitoringName(name, i), pools.get(i));
+                }
             }
             else {
                 logger.log(Level.WARNING, "Application name is not configured in " +
@@ -235,56 +281,55 @@ public class GenericJMSRA extends GenericJMSRAProperties
         EndpointKey key = new EndpointKey(mef, spec);
 
         AbstractConsumer consumer = (AbstractConsumer) getConsumers().remove(key);
-        if ((getMonitoring()) && (monitor != null))  {
-            monitor.removePool(consumer.getSpec().getApplicationName());
+        if ((getMonitoring()) && (monitor != null) && (consumer != null))  {
+            String name = consumer.getSpec().getApplicationName();
+            int pools = consumer.getPools().size();
+            for (int i = 0; i < pools; i++) {
+                monitor.removePool(getMonitoringName(name, i));
+            }
         }
         if (consumer != null) {
             consumer.stop();
         }
     }
 
+    /**
+     * Name under which a pool of an endpoint is monitored. With more than
+     * one connection (ConnectionCount) the pools after the first one are
+     * monitored as name#1, name#2...
+     */
+    private static String getMonitoringName(String name, int stripe) {
+        return (stripe == 0) ? name : (name + "#" + stripe);
+    }
+
     /**
      * This method is used by the application server during crash recovery.
      * It returns all the XAResources of the activated endpoints, that are described
      * through the activation spec. The application server uses these objects to 
-     * query the RM of in-doubt transactions.
+     * query the RM of in-doubt transactions. One XAResource is returned per
+     * resource manager, see RecoveryRegistry.
      *
      * @ returns an array of XAResource objects corresponding to the endpoints.
      */
     public XAResource[] getXAResources(ActivationSpec[] specs)
         throws ResourceException {
-        ArrayList xars = new ArrayList();
-
-        for (int i = 0; i < specs.length; i++) {
-            com.sun.genericra.inbound.ActivationSpec tmpSpec = null;
-
-            if (specs[i] instanceof com.sun.genericra.inbound.ActivationSpec) {
-                tmpSpec = (com.sun.genericra.inbound.ActivationSpec) specs[i];
-            } else {
-                continue;
+        GenericJMSRA ra = getInstance();
+        RecoveryRegistry registry = null;
+        synchronized (ra) {
+            if (ra.recovery == null) {
+                ra.recovery = new RecoveryRegistry(ra);
             }
-
-            if (tmpSpec.getSupportsXA()) {
-                XAConnection xacon = null;
-                XASession xasess = null;
-                AbstractConsumer consumer = null;
-
-                try {
-                    consumer = EndpointConsumerFactory.createEndpointConsumer(tmpSpec);
-                    consumer.initialize(true);
-                    xacon = (XAConnection) consumer.getConnection();
-                    xasess = xacon.createXASession();
-
-                    XAResource xaRes = xasess.getXAResource();
-                    xars.add(xaRes);
-                    logger.log(Level.FINEST, "Added XA Resource : " + xaRes);
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, e.getMessage(), e);
-                }
+            registry = ra.recovery;
+        }
+        List<AbstractConsumer> active = new ArrayList<AbstractConsumer>();
+        Map<?, ?> consumers = getConsumers();
+        // Endpoints may be activated or deactivated meanwhile
+        synchronized (consumers) {
+            for (Object consumer : consumers.values()) {
+                active.add((AbstractConsumer) consumer);
             }
         }
-
-        return (XAResource[]) xars.toArray(new XAResource[0]);
+        return registry.getXAResources(specs, active);
     }
 
     /**
@@ -296,6 +341,39 @@ public class GenericJMSRA extends GenericJMSRAProperties
         return getInstance().context.getWorkManager();
     }
 
+    /**
+     * Executor of the message delivery works, as configured by the
+     * ExecutionMode of the RA. It is created on first use.
+     *
+     * @return executor of the message delivery works.
+     */
+    public WorkExecutor getExecutor() {
+        GenericJMSRA ra = getInstance();
+        synchronized (ra) {
+            if (ra.executor == null) {
+                ra.executor = new WorkExecutor(ra.executionMode,
+                    ra.executionPoolSize, ra.context.getWorkManager());
+            }
+            return ra.executor;
+        }
+    }
+
+    /**
+     * Timer shared by all endpoints for periodic pool maintenance. It is
+     * created from the bootstrap context on first use.
+     *
+     * @return timer provided by the app server.
+     */
+    public Timer getTimer() throws UnavailableException {
+        GenericJMSRA ra = getInstance();
+        synchronized (ra) {
+            if (ra.timer == null) {
+                ra.timer = ra.context.createTimer();
+            }
+            return ra.timer;
+        }
+    }
+
     /**
      * Object builder factory object that is used to create JMS 
      * administered objects through jndi lookup or reflection.
@@ -327,6 +405,44 @@ public class GenericJMSRA extends GenericJMSRAProperties
         return logLevel;
     }
 
+    /**
+     * Sets where the message delivery works are run: WorkManager,
+     * VirtualThreads or DedicatedPool.
+     *
+     * @param mode execution mode.
+     */
+    public void setExecutionMode(String mode) {
+        logger.log(Level.FINEST, "Setting execution mode:" + mode);
+        this.executionMode = mode;
+    }
+
+    /**
+     * Returns the execution mode of the message delivery works.
+     *
+     * @return execution mode.
+     */
+    public String getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Sets the number of threads used in DedicatedPool mode.
+     *
+     * @param size number of threads.
+     */
+    public void setExecutionPoolSize(int size) {
+        this.executionPoolSize = size;
+    }
+
+    /**
+     * Returns the number of threads used in DedicatedPool mode.
+     *
+     * @return number of threads.
+     */
+    public int getExecutionPoolSize() {
+        return executionPoolSize;
+    }
+
     /**
      * Returns the list of inbound endpoints.
      * 
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+
+/**
+ * Results of the isSameRM() calls made on the XAResources of the JMS
+ * provider, so that the provider (which may have to contact the broker)
+ * is only asked once for a given pair of resource managers.
+ *
+ * A resource manager is identified by the physical JMS connection of the
+ * XAResource wrapper (or by the XAResource itself when it is not one of
+ * ours): the answer of the provider is the same for all the sessions of
+ * a connection, and does not change during the life of the connection.
+ * The keys are weak, the results of a connection are dropped once the
+ * connection has been garbage collected.
+ */
+public class ResourceManagerCache {
+    private static ResourceManagerCache instance = new ResourceManagerCache();
+
+    private Map<Object, Map<Object, Boolean>> results =
+        new WeakHashMap<Object, Map<Object, Boolean>>();
+
+    public static ResourceManagerCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the cached result for the given resource managers, or null
+     * if the provider has not been asked yet.
+     */
+    public synchronized Boolean get(Object rm, Object other) {
+        Map<Object, Boolean> m = results.get(rm);
+        return (m == null) ? null : m.get(other);
+    }
+
+    public synchronized void put(Object rm, Object other, boolean same) {
+        put0(rm, other, same);
+        // isSameRM() is symmetric
+        put0(other, rm, same);
+    }
+
+    /**
+     * Drops the results of a resource manager, eg: when its connection
+     * is closed.
+     */
+    public synchronized void remove(Object rm) {
+        Map<Object, Boolean> m = results.remove(rm);
+        if (m != null) {
+            for (Object other : m.keySet()) {
+                Map<Object, Boolean> o = results.get(other);
+                if (o != null) {
+                    o.remove(rm);
+                }
+            }
+        }
+    }
+
+    private void put0(Object rm, Object other, boolean same) {
+        Map<Object, Boolean> m = results.get(rm);
+        if (m == null) {
+            m = new WeakHashMap<Object, Boolean>();
+            results.put(rm, m);
+        }
+        m.put(other, Boolean.valueOf(same));
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra;
+
+import com.sun.genericra.util.*;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.resource.spi.work.Work;
+import jakarta.resource.spi.work.WorkException;
+import jakarta.resource.spi.work.WorkManager;
+import jakarta.resource.spi.work.WorkRejectedException;
+
+
+/**
+ * Runs the message delivery works of the inbound endpoints, according to
+ * the ExecutionMode of the resource adapter:
+ *   - WorkManager: the works are scheduled on the WorkManager of the
+ *     container (default).
+ *   - VirtualThreads: every work runs on its own virtual thread. Virtual
+ *     threads are looked up through reflection, so that the RA still runs
+ *     on JVMs without them; there the DedicatedPool mode is used instead.
+ *   - DedicatedPool: the works run on a thread pool owned by the RA, with
+ *     up to ExecutionPoolSize threads. Works are never queued: when all the
+ *     threads are busy, the work is scheduled on the WorkManager instead.
+ *
+ * Sync receivers occupy their thread for as long as the endpoint is
+ * active, so in DedicatedPool mode the pool has to be large enough for
+ * all of them.
+ */
+public class WorkExecutor {
+    private static Logger _logger;
+
+    static {
+        _logger = LogUtils.getLogger();
+    }
+
+    private static final String THREAD_NAME_PREFIX = "genericra-delivery-";
+    private static final long KEEP_ALIVE = 60;
+
+    private String mode;
+    private WorkManager wm;
+    private ThreadFactory factory = null;
+    private ThreadPoolExecutor pool = null;
+    private Set<Work> running = ConcurrentHashMap.newKeySet();
+    private AtomicInteger threadCount = new AtomicInteger(0);
+    private AtomicLong submitted = new AtomicLong(0);
+    private AtomicLong completed = new AtomicLong(0);
+    private AtomicLong rejected = new AtomicLong(0);
+    private volatile boolean shutdown = false;
+
+    public WorkExecutor(String mode, int poolSize, WorkManager wm) {
+        this.wm = wm;
+        this.mode = Constants.ExecutionMode.WORK_MANAGER;
+        if (Constants.ExecutionMode.VIRTUAL_THREADS.equalsIgnoreCase(mode)) {
+            this.factory = createVirtualThreadFactory();
+            if (this.factory != null) {
+                this.mode = Constants.ExecutionMode.VIRTUAL_THREADS;
+            } else {
+                _logger.log(Level.WARNING, "Virtual threads are not available in this JVM, "
+                    + "using a dedicated thread pool for message delivery");
+                mode = Constants.ExecutionMode.DEDICATED_POOL;
+            }
+        }
+        if (Constants.ExecutionMode.DEDICATED_POOL.equalsIgnoreCase(mode)) {
+            this.mode = Constants.ExecutionMode.DEDICATED_POOL;
+            this.factory = new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+            // A queued work would wait for a thread held by a sync receiver
+            // possibly forever, so the pool rejects instead.
+            this.pool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE,
+                TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), factory);
+            this.pool.allowCoreThreadTimeOut(true);
+        }
+        _logger.log(Level.FINE, "Message delivery execution mode : " + this.mode +
+            (this.pool != null ? (", pool size " + poolSize) : ""));
+    }
+
+    /**
+     * Creates a factory of named virtual threads, the equivalent of
+     * Thread.ofVirtual().name(prefix, 1).factory(). Returns null if the
+     * JVM does not support virtual threads.
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, THREAD_NAME_PREFIX + "vt-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Throwable t) {
+            _logger.log(Level.FINE, "Virtual threads not available: " + t);
+            return null;
+        }
+    }
+
+    public String getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Schedules a work for execution. A work rejected by the dedicated pool
+     * is scheduled on the WorkManager.
+     */
+    public void execute(final Work work) throws WorkException {
+        if (this.factory == null) {
+            wm.scheduleWork(work);
+            submitted.incrementAndGet();
+            return;
+        }
+        if (shutdown) {
+            rejected.incrementAndGet();
+            throw new WorkRejectedException("Message delivery executor has been shut down");
+        }
+
+        Runnable r = new Runnable() {
+            public void run() {
+                running.add(work);
+                try {
+                    work.run();
+                } catch (Throwable t) {
+                    _logger.log(Level.SEVERE, "" + t.getMessage(), t);
+                } finally {
+                    running.remove(work);
+                    completed.incrementAndGet();
+                }
+            }
+        };
+        try {
+            if (pool != null) {
+                pool.execute(r);
+            } else {
+                factory.newThread(r).start();
+            }
+            submitted.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            if (shutdown || (wm == null)) {
+                throw new WorkRejectedException(e);
+            }
+            _logger.log(Level.WARNING, "All the " + pool.getMaximumPoolSize() +
+                " threads of the message delivery pool are busy, scheduling the" +
+                " work on the WorkManager. Consider increasing ExecutionPoolSize");
+            wm.scheduleWork(work);
+            submitted.incrementAndGet();
+        }
+    }
+
+    /**
+     * Number of works being executed. Not known for works scheduled on the
+     * WorkManager.
+     */
+    public int getActiveWorks() {
+        return (this.factory == null) ? -1 : running.size();
+    }
+
+    public long getSubmittedWorks() {
+        return this.submitted.get();
+    }
+
+    public long getCompletedWorks() {
+        return (this.factory == null) ? -1 : this.completed.get();
+    }
+
+    public long getRejectedWorks() {
+        return this.rejected.get();
+    }
+
+    /**
+     * Releases the works still running and stops the RA owned threads.
+     */
+    public void shutdown() {
+        shutdown = true;
+        Iterator<Work> it = running.iterator();
+        while (it.hasNext()) {
+            try {
+                it.next().release();
+            } catch (Throwable t) {
+                _logger.log(Level.FINE, "" + t.getMessage(), t);
+            }
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+}
@@ -22,6 +22,8 @@ import com.sun.genericra.util.LogUtils;
 import com.sun.genericra.util.*;
 
 import jakarta.jms.Destination;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
 import java.util.logging.Level;
@@ -214,6 +216,11 @@ public abstract class AbstractConsumer {
             }
         }
         
+        if (spec.getSharedSubscription() && !(dest instanceof jakarta.jms.Topic)) {
+            String msg = sm.getString("shared_shouldbe_topic");
+            throw new ResourceException(msg);
+        }
+        
         if (this.spec.getSupportsXA()) {
             if (!(cf instanceof jakarta.jms.XAConnectionFactory)) {
                 String msg = sm.getString("cf_doesnot_supportsxa");
@@ -229,9 +236,16 @@ public abstract class AbstractConsumer {
         } catch (NoSuchMethodException e) {
             ;
         }
+        if (this.transacted && this.spec.getLocalTransacted()) {
+            logger.log(Level.WARNING, "LocalTransacted is ignored, the delivery " +
+                "of the endpoint is XA transacted");
+        }
     }
     
     public void setClientId() throws ResourceException {
+        if (!useClientId()) {
+            return;
+        }
         try {
             if (spec.getClientID() != null) {                
                 if ((!spec.getShareClientid()) && (spec.getInstanceCount() > 1)) {
@@ -259,6 +273,45 @@ public abstract class AbstractConsumer {
             throw ExceptionUtils.newResourceException(e);
         }
     }
+    /**
+     * A shared subscription is identified by its name and the client ID of
+     * the connection. The client ID has to be unique, so it is not set
+     * for shared subscriptions, which could not be shared otherwise.
+     */
+    public boolean useClientId() {
+        if (spec.getSharedSubscription()) {
+            if ((spec.getClientID() != null) && !"".equals(spec.getClientID())) {
+                logger.log(Level.WARNING, "ClientId is ignored for shared subscriptions");
+            }
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Number of connections to open for this consumer. A topic subscriber
+     * would receive every message once per connection, so topics always
+     * use a single connection.
+     */
+    public int getConnectionCount() {
+        int count = spec.getConnectionCount();
+        if ((count > 1) && Constants.TOPIC.equals(spec.getDestinationType())
+            && !spec.getSharedSubscription()) {
+            logger.log(Level.WARNING, "ConnectionCount is ignored for topic " +
+                "subscriptions, using a single connection");
+            return 1;
+        }
+        return Math.max(1, count);
+    }
+    
+    /**
+     * Returns the pools of this consumer, one per connection. The pool
+     * returned by getPool() is the first one.
+     */
+    public List<? extends AbstractJmsResourcePool> getPools() {
+        return Collections.singletonList(getPool());
+    }
+    
     public abstract void initialize(boolean isTx) throws ResourceException ;
     
     public abstract void start() throws ResourceException ;
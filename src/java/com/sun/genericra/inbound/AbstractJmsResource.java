@@ -44,6 +44,22 @@ public abstract class AbstractJmsResource {
     protected AbstractJmsResourcePool pool;
     protected DeliveryHelper helper;
     
+    /* True between beforeDelivery and afterDelivery on the endpoint.
+     */
+    protected boolean delivering = false;
+    
+    /* Number of deliveries made with the current endpoint.
+     */
+    protected int endpointUses = 0;
+    
+    /* Time (System.currentTimeMillis()) the current endpoint was created.
+     */
+    protected long endpointCreated = 0;
+    
+    /* Set when a delivery with the current endpoint failed.
+     */
+    protected boolean endpointFailed = false;
+    
     public AbstractJmsResource(Session session, AbstractJmsResourcePool pool,
             XAResource xaresource) throws JMSException {
         this.session = session;
@@ -64,4 +80,48 @@ public abstract class AbstractJmsResource {
     public MessageEndpoint getEndpoint() {
         return this.endPoint;
     }
+    
+    /**
+     * Forces the release of the current endpoint once the delivery is
+     * complete, instead of keeping it for reuse.
+     */
+    public void markEndpointFailed() {
+        this.endpointFailed = true;
+    }
+    
+    /**
+     * Closes the session of the resource and releases its endpoint.
+     */
+    public abstract void destroy();
+    
+    /**
+     * Records a new endpoint obtained from the MessageEndpointFactory.
+     */
+    protected void endpointCreated() {
+        this.endpointUses = 0;
+        this.endpointCreated = System.currentTimeMillis();
+        this.endpointFailed = false;
+    }
+    
+    /**
+     * True if the endpoint has been kept longer than EndpointReuseTime.
+     */
+    protected boolean endpointExpired() {
+        long reuseTime = pool.getConsumer().getSpec().getEndpointReuseTime();
+        return (reuseTime > 0) &&
+            ((System.currentTimeMillis() - endpointCreated) >= reuseTime);
+    }
+    
+    /**
+     * Endpoints are only reused for non-transacted delivery, when
+     * EndpointReuseCount allows more than one delivery per endpoint, and
+     * never after a failed delivery.
+     */
+    protected boolean canReuseEndpoint() {
+        if ((endPoint == null) || pool.isTransacted() || endpointFailed) {
+            return false;
+        }
+        int reuseCount = pool.getConsumer().getSpec().getEndpointReuseCount();
+        return (reuseCount > 1) && (endpointUses < reuseCount) && !endpointExpired();
+    }
 }
@@ -15,12 +15,16 @@ import com.sun.genericra.inbound.*;
 import com.sun.genericra.util.*;
 import com.sun.genericra.monitoring.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jakarta.jms.*;
 
 import jakarta.resource.ResourceException;
+import jakarta.resource.spi.work.Work;
 
 import javax.transaction.xa.XAResource;
 /**
@@ -57,31 +61,99 @@ public abstract class AbstractJmsResourcePool {
      */
     protected boolean transacted = false;
     
+    /* Non-XA delivery in locally transacted sessions (LocalTransacted).
+     */
+    protected boolean localTransacted = false;
+    
     /* Alive or dead pool.
      */
-    protected boolean destroyed = false;
+    protected volatile boolean destroyed = false;
     
     /* has the pool been stopped.
      */
-    protected boolean stopped = false;
+    protected volatile boolean stopped = false;
+    
+    /* Session handing out the XAResource for crash recovery, and the
+     * connection it belongs to.
+     */
+    private XASession recoverySession = null;
+    private Connection recoveryConnection = null;
+    
+    /* Index of this pool among the pools of the consumer, there is one
+     * pool (and one connection) per ConnectionCount.
+     */
+    protected int stripe = 0;
+    
+    /* Number of pools of the consumer.
+     */
+    protected int stripes = 1;
+    
+    /* Limits the number of resources used concurrently.
+     */
+    protected ConcurrencyController concurrency = null;
     
     /* Time out for getting a new session from pool.
      */
     protected long TIME_OUT = 180 * 1000;
     
+    /**
+     * Time (in milliseconds) taken by the last drain of the pool.
+     */
+    protected volatile long drainTime = -1;
+    
+    /**
+     * Number of deliveries still in progress when the last drain gave up.
+     */
+    protected volatile int abandonedDeliveries = 0;
+    
+    /**
+     * Maximum number of resources closed concurrently when the pool is
+     * drained.
+     */
+    private static final int CLOSE_PARALLELISM = 8;
+    
     /* i18n.
      */
     protected StringManager sm = StringManager.getManager(GenericJMSRA.class);
     
     /** Creates a new instance of AbstractJmsResourcePool */
     public AbstractJmsResourcePool(AbstractConsumer cons, boolean transacted) {
+        this(cons, transacted, 0, 1);
+    }
+    
+    public AbstractJmsResourcePool(AbstractConsumer cons, boolean transacted,
+        int stripe, int stripes) {
         this.consumer = cons;
         this.transacted = transacted;
+        this.localTransacted = !transacted && cons.getSpec().getLocalTransacted();
+        this.stripe = stripe;
+        this.stripes = Math.max(1, stripes);
+    }
+    
+    public int getStripe() {
+        return this.stripe;
+    }
+    
+    /**
+     * Part of the given total (eg: MaxPoolSize) that falls to this pool when
+     * the total is distributed over all pools of the consumer.
+     */
+    protected int stripeShare(int total) {
+        int share = total / stripes;
+        if (stripe < (total % stripes)) {
+            share++;
+        }
+        return share;
     }
     
        public boolean isTransacted() {
         return transacted;
     } 
+    
+    public boolean isLocalTransacted() {
+        return localTransacted;
+    }
+
     /**
      * Creates the XA connection from the XA connection factory.
      *
@@ -90,23 +162,38 @@ public abstract class AbstractJmsResourcePool {
      */
     public  XAConnection createXAConnection(XAConnectionFactory xacf)
     throws JMSException {
+        return createXAConnection(xacf, consumer.getSpec());
+    }
+    
+    /**
+     * Creates an XA connection with the credentials and for the destination
+     * type of the given activation spec.
+     *
+     * @param xacf XA connection factory
+     * @param spec activation spec
+     * @return XAconnection object.
+     */
+    public static XAConnection createXAConnection(XAConnectionFactory xacf,
+        ActivationSpec spec) throws JMSException {
         XAConnection xac = null;
-        String user = consumer.getSpec().getUserName();
-        String password = consumer.getSpec().getPassword();
+        String user = spec.getUserName();
+        String password = spec.getPassword();
+        boolean isQueue = spec.getDestinationType().equals(Constants.QUEUE);
+        boolean isTopic = spec.getDestinationType().equals(Constants.TOPIC);
         
 		if (user == null || user.equals("")) {
-	        if (isQueue()) {
+	        if (isQueue) {
 	            xac = ((XAQueueConnectionFactory) xacf).createXAQueueConnection();
-	        } else if (isTopic()) {
+	        } else if (isTopic) {
 	            xac = ((XATopicConnectionFactory) xacf).createXATopicConnection();
 	        } else {
 	            xac = xacf.createXAConnection();
 	        }			
 		} else {
-	        if (isQueue()) {
+	        if (isQueue) {
 	            xac = ((XAQueueConnectionFactory) xacf).createXAQueueConnection(user,
 	                    password);
-	        } else if (isTopic()) {
+	        } else if (isTopic) {
 	            xac = ((XATopicConnectionFactory) xacf).createXATopicConnection(user,
 	                    password);
 	        } else {
@@ -137,6 +224,24 @@ public abstract class AbstractJmsResourcePool {
         return result;
     }
     
+    /**
+     * XAResource of the connection of the pool, for crash recovery. It
+     * comes from a session that is created on the first call and lives as
+     * long as the connection. Returns null if the connection is not an XA
+     * connection.
+     */
+    public synchronized XAResource getRecoveryXAResource() throws JMSException {
+        Connection current = getConnection();
+        if (!(current instanceof XAConnection)) {
+            return null;
+        }
+        if ((recoverySession == null) || (recoveryConnection != current)) {
+            recoverySession = createXASession((XAConnection) current);
+            recoveryConnection = current;
+        }
+        return getXAResource(recoverySession);
+    }
+    
     public XAResource getXAResource(XASession session)
     throws JMSException {
         XAResource result = null;
@@ -179,16 +284,34 @@ public abstract class AbstractJmsResourcePool {
     }
     
     public Session createSession(Connection con) throws JMSException {
+        return createSession(con, false);
+    }
+    
+    /**
+     * Creates a non-XA session, which is a locally transacted session if
+     * localTx is true.
+     */
+    public Session createSession(Connection con, boolean localTx) throws JMSException {
+        return createSession(con, localTx ? Session.SESSION_TRANSACTED :
+                Session.AUTO_ACKNOWLEDGE);
+    }
+    
+    /**
+     * Creates a non-XA session with the given acknowledge mode;
+     * Session.SESSION_TRANSACTED creates a locally transacted session.
+     */
+    public Session createSession(Connection con, int ackMode) throws JMSException {
         Session sess = null;
+        boolean localTx = (ackMode == Session.SESSION_TRANSACTED);
         
         if (isTopic()) {
-            sess = ((TopicConnection) con).createTopicSession(false,
-                    Session.AUTO_ACKNOWLEDGE);
+            sess = ((TopicConnection) con).createTopicSession(localTx,
+                    ackMode);
         } else if (isQueue()) {
-            sess = ((QueueConnection) con).createQueueSession(false,
-                    Session.AUTO_ACKNOWLEDGE);
+            sess = ((QueueConnection) con).createQueueSession(localTx,
+                    ackMode);
         } else {
-            sess = con.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            sess = con.createSession(localTx, ackMode);
         }
         
         return sess;
@@ -197,6 +320,11 @@ public abstract class AbstractJmsResourcePool {
   
     public String constructSelector(String name) {
         String selector = null;
+        if (this.consumer.getSpec().getSharedSubscription()) {
+            // The instances share the subscription, no need to split
+            // the messages between them.
+            return name;
+        }
         try {
             int instancecount = this.consumer.getSpec().getInstanceCount();
             int instanceid = this.consumer.getSpec().getInstanceID();
@@ -279,6 +407,9 @@ public abstract class AbstractJmsResourcePool {
 	*/
     public MessageConsumer createMessageConsumer(Session sess) throws JMSException {
         Destination dest = this.consumer.getDestination();
+        if (isTopic() && this.consumer.getSpec().getSharedSubscription()) {
+            return createSharedConsumer(sess, (Topic) dest);
+        }
 	if (this.transacted) {
             if (isTopic()) {
 		if (Constants.DURABLE.equals(this.consumer.getSpec().getSubscriptionDurability())) {
@@ -313,6 +444,21 @@ public abstract class AbstractJmsResourcePool {
             }
 	}
     }   
+    /**
+     * Creates a consumer on the shared (durable or non-durable)
+     * subscription of the endpoint.
+     */
+    private MessageConsumer createSharedConsumer(Session sess, Topic topic)
+    throws JMSException {
+        ActivationSpec spec = this.consumer.getSpec();
+        if (Constants.DURABLE.equals(spec.getSubscriptionDurability())) {
+            return sess.createSharedDurableConsumer(topic,
+                    spec.getSubscriptionName(), spec.getMessageSelector());
+        }
+        return sess.createSharedConsumer(topic, spec.getSubscriptionName(),
+                spec.getMessageSelector());
+    }
+    
     public boolean isQueue() {
         return consumer.getSpec().getDestinationType().equals(Constants.QUEUE);
     }
@@ -341,4 +487,244 @@ public abstract class AbstractJmsResourcePool {
     
     public abstract int getConnectionsInUse();
     public abstract int getWaiting();
+    
+    /**
+     * Number of requests that had to wait for a resource.
+     */
+    public long getTotalWaits() {
+        return 0;
+    }
+    
+    /**
+     * Average time (in milliseconds) spent waiting for a resource.
+     */
+    public long getAverageWaitTime() {
+        return 0;
+    }
+    
+    /**
+     * Longest time (in milliseconds) spent waiting for a resource.
+     */
+    public long getMaxObservedWaitTime() {
+        return 0;
+    }
+    
+    /**
+     * Number of requests that timed out waiting for a resource.
+     */
+    public long getWaitTimeouts() {
+        return 0;
+    }
+    
+    /**
+     * Time (in milliseconds) taken to pre-create the minimum number of
+     * resources, -1 if the pool has not been pre-warmed (yet).
+     */
+    public long getWarmUpTime() {
+        return -1;
+    }
+    
+    /**
+     * Time (in milliseconds) the pool waited for the MDB deployment to
+     * complete, -1 if it is not known (yet).
+     */
+    public long getDeploymentWaitTime() {
+        return -1;
+    }
+    
+    /**
+     * Number of times message delivery was paused because the pool
+     * reached its backpressure high-water mark.
+     */
+    public long getBackpressurePauses() {
+        return 0;
+    }
+    
+    /**
+     * Total time (in milliseconds) message delivery was paused by
+     * backpressure.
+     */
+    public long getBackpressureTime() {
+        return 0;
+    }
+    
+    /**
+     * Number of idle resources closed by the pool.
+     */
+    public long getEvictedResources() {
+        return 0;
+    }
+    
+    /**
+     * Number of sync receivers allowed to receive messages by the
+     * concurrency limit, -1 for pools without receivers.
+     */
+    public int getActiveReceivers() {
+        return -1;
+    }
+    
+    /**
+     * Number of sync receivers parked by the concurrency limit, -1 for
+     * pools without receivers.
+     */
+    public int getParkedReceivers() {
+        return -1;
+    }
+    
+    /**
+     * Percentage of the receives of the sync receivers that did not
+     * return a message, -1 for pools that do not poll for messages.
+     */
+    public int getEmptyPollRatio() {
+        return -1;
+    }
+    
+    /**
+     * Time (in milliseconds) taken by the last drain of the pool, -1 if
+     * the pool has not been drained.
+     */
+    public long getDrainTime() {
+        return this.drainTime;
+    }
+    
+    /**
+     * Number of deliveries that had not completed when the last drain
+     * of the pool timed out.
+     */
+    public int getAbandonedDeliveries() {
+        return this.abandonedDeliveries;
+    }
+    
+    /**
+     * Destroys the given resources using up to CLOSE_PARALLELISM works,
+     * the calling thread being one of them. Waits at most until the
+     * deadline (System.nanoTime()) for the other works to finish.
+     */
+    protected void destroyResources(Collection<? extends AbstractJmsResource> resources,
+        long deadline) {
+        final ConcurrentLinkedQueue<AbstractJmsResource> queue =
+            new ConcurrentLinkedQueue<AbstractJmsResource>(resources);
+        int workers = Math.min(CLOSE_PARALLELISM, queue.size()) - 1;
+        final CountDownLatch done = new CountDownLatch(Math.max(0, workers));
+        for (int i = 0; i < workers; i++) {
+            Work w = new Work() {
+                public void run() {
+                    try {
+                        destroyQueued(queue);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+
+                public void release() {
+                    // For now do nothing.
+                }
+            };
+            try {
+                ((GenericJMSRA) consumer.getResourceAdapter()).getWorkManager().scheduleWork(w);
+            } catch (Exception e) {
+                // The calling thread closes what is left.
+                done.countDown();
+            }
+        }
+        destroyQueued(queue);
+        try {
+            long remaining = deadline - System.nanoTime();
+            if ((remaining > 0) &&
+                !done.await(remaining, TimeUnit.NANOSECONDS)) {
+                _logger.log(Level.WARNING, "Timed out waiting for the sessions of the pool to close");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void destroyQueued(ConcurrentLinkedQueue<AbstractJmsResource> queue) {
+        AbstractJmsResource resource;
+        while ((resource = queue.poll()) != null) {
+            try {
+                resource.destroy();
+            } catch (Exception e) {
+                // This is just to make sure that if one resource fails to destroy
+                // we still call destroy on others.
+                _logger.log(Level.SEVERE,
+                    "Cannot destroy resource " + resource.toString());
+            }
+        }
+    }
+    
+    /**
+     * Creates the concurrency controller of the pool and, if the activation
+     * spec asks for it, starts adapting the limit. An override set through
+     * JMX survives the re-initialization of the pool.
+     */
+    protected void startConcurrencyControl(int min, int max) {
+        int override = (concurrency != null) ? concurrency.getOverride() : 0;
+        stopConcurrencyControl();
+        ConcurrencyController controller = new ConcurrencyController(this, min,
+            max, consumer.getSpec().getAdaptiveConcurrency(), override);
+        if (controller.isAdaptive()) {
+            try {
+                controller.start(((GenericJMSRA) consumer.getResourceAdapter()).getTimer());
+            } catch (Exception e) {
+                _logger.log(Level.WARNING, "Adaptive concurrency is disabled: " +
+                    e.getMessage());
+            }
+        }
+        concurrency = controller;
+    }
+    
+    protected void stopConcurrencyControl() {
+        if (concurrency != null) {
+            concurrency.stop();
+        }
+    }
+    
+    /**
+     * Number of resources that may currently be used for message delivery.
+     */
+    public int getConcurrencyLimit() {
+        ConcurrencyController controller = concurrency;
+        return (controller == null) ? getMaxSize() : controller.getLimit();
+    }
+    
+    /**
+     * Overrides the concurrency limit. A value of zero or less gives the
+     * control back to the pool.
+     */
+    public void setConcurrencyLimit(int limit) {
+        ConcurrencyController controller = concurrency;
+        if (controller != null) {
+            controller.setOverride(limit);
+        }
+    }
+    
+    public boolean isAdaptiveConcurrency() {
+        ConcurrencyController controller = concurrency;
+        return (controller != null) && controller.isAdaptive();
+    }
+    
+    /**
+     * Records the time taken to deliver a message.
+     */
+    public void deliveryCompleted(long nanos) {
+        ConcurrencyController controller = concurrency;
+        if (controller != null) {
+            controller.completed(nanos);
+        }
+    }
+    
+    /**
+     * Tells the concurrency controller whether more resources would have
+     * been used, had the limit allowed it.
+     */
+    protected boolean hasPendingDemand() {
+        return getWaiting() > 0;
+    }
+    
+    /**
+     * Called when the concurrency limit has been changed.
+     */
+    protected void concurrencyLimitChanged(int oldLimit, int newLimit) {
+    }
 }
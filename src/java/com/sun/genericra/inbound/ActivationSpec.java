@@ -41,12 +41,33 @@ public class ActivationSpec extends GenericJMSRAProperties
     private String messageSelector;
     private String subscriptionDurability = Constants.NONDURABLE;
     private String subscriptionName;
+    private boolean sharedSubscription = false;
     private String clientId;
     private int redeliveryAttempts;
     private int redeliveryInterval;
     private int reconnectAttempts;
     private int reconnectInterval;
     private int maxPoolSize = 8;
+    private int minPoolSize = 0;
+    private int idleTimeout = 0;
+    private boolean adaptiveConcurrency = false;
+    private boolean elasticReceivers = false;
+    private int receiverGrowThreshold = 4;
+    private int receiverShrinkThreshold = 8;
+    private long receiverScalingInterval = 1000;
+    private int connectionCount = 1;
+    private int maxMessagesPerSession = 1;
+    private int endpointReuseCount = 1;
+    private long endpointReuseTime = 0;
+    private int backpressureHighWaterMark = 0;
+    private int backpressureLowWaterMark = 50;
+    private long minReceiveTimeout = 100;
+    private long maxReceiveTimeout = 5000;
+    private long batchTimeout = 0;
+    private int prefetchSize = 0;
+    private int transactionBatchSize = 1;
+    private long transactionBatchTimeout = 0;
+    private int prefetchWorkers = 1;
     private int maxWaitTime = 300;
     private boolean isDmd = false;
     private String dmClassName;
@@ -71,6 +92,7 @@ public class ActivationSpec extends GenericJMSRAProperties
     /*Sync consumer props*/
     private int batchSize = 1;
     private boolean huaMode = false;
+    private boolean localTransacted = false;
     private int ackTimeOut = Constants.DEFAULT_ACK_TIMEOUT;
     
     private StringManager sm = StringManager.getManager(GenericJMSRA.class);
@@ -194,6 +216,20 @@ public class ActivationSpec extends GenericJMSRAProperties
         return this.subscriptionName;
     }
 
+    /**
+     * Consume from a JMS 2.0 shared subscription (durable or not,
+     * according to SubscriptionDurability) named SubscriptionName. All the
+     * sessions, connections and instances of the endpoint then share the
+     * messages of the subscription, without a load balancing selector.
+     */
+    public void setSharedSubscription(boolean shared) {
+        this.sharedSubscription = shared;
+    }
+
+    public boolean getSharedSubscription() {
+        return this.sharedSubscription;
+    }
+
     public void setMessageSelector(String selector) {
         this.messageSelector = selector;
     }
@@ -242,6 +278,189 @@ public class ActivationSpec extends GenericJMSRAProperties
         return this.maxPoolSize;
     }
 
+    public void setMinPoolSize(int minPoolSize) {
+        this.minPoolSize = minPoolSize;
+    }
+
+    public int getMinPoolSize() {
+        return this.minPoolSize;
+    }
+
+    /**
+     * Time in seconds after which an unused ServerSession above MinPoolSize
+     * is closed. 0 disables eviction.
+     */
+    public void setIdleTimeout(int secs) {
+        this.idleTimeout = secs;
+    }
+
+    public int getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    /**
+     * If true, the number of sessions used concurrently is adapted between
+     * MinPoolSize and MaxPoolSize based on the delivery latency and load.
+     */
+    public void setAdaptiveConcurrency(boolean adaptive) {
+        this.adaptiveConcurrency = adaptive;
+    }
+
+    public boolean getAdaptiveConcurrency() {
+        return this.adaptiveConcurrency;
+    }
+
+    /**
+     * Sync receivers are started and stopped with the backlog: the
+     * endpoint starts with MinPoolSize receivers (at least one), adds one
+     * while the receivers keep getting messages and retires one after
+     * repeated empty receives.
+     */
+    public void setElasticReceivers(boolean elastic) {
+        this.elasticReceivers = elastic;
+    }
+
+    public boolean getElasticReceivers() {
+        return this.elasticReceivers;
+    }
+
+    /**
+     * Number of messages a sync receiver has to get in a row before an
+     * elastic pool adds a receiver.
+     */
+    public void setReceiverGrowThreshold(int threshold) {
+        this.receiverGrowThreshold = threshold;
+    }
+
+    public int getReceiverGrowThreshold() {
+        return this.receiverGrowThreshold;
+    }
+
+    /**
+     * Number of empty receives a sync receiver has to see in a row before
+     * it may retire from an elastic pool.
+     */
+    public void setReceiverShrinkThreshold(int threshold) {
+        this.receiverShrinkThreshold = threshold;
+    }
+
+    public int getReceiverShrinkThreshold() {
+        return this.receiverShrinkThreshold;
+    }
+
+    /**
+     * Minimum time in milliseconds between two changes of the number of
+     * receivers of an elastic pool.
+     */
+    public void setReceiverScalingInterval(long millis) {
+        this.receiverScalingInterval = millis;
+    }
+
+    public long getReceiverScalingInterval() {
+        return this.receiverScalingInterval;
+    }
+
+    /**
+     * Number of JMS connections used by the endpoint. The sessions of the
+     * endpoint are distributed evenly over the connections.
+     */
+    public void setConnectionCount(int connectionCount) {
+        this.connectionCount = connectionCount;
+    }
+
+    public int getConnectionCount() {
+        return this.connectionCount;
+    }
+
+    /**
+     * Maximum number of messages the JMS provider may load into one
+     * ServerSession. They are delivered one after the other using the
+     * same MessageEndpoint.
+     */
+    public void setMaxMessagesPerSession(int maxMessages) {
+        this.maxMessagesPerSession = maxMessages;
+    }
+
+    public int getMaxMessagesPerSession() {
+        return this.maxMessagesPerSession;
+    }
+
+    /**
+     * Number of messages a MessageEndpoint of a non-transacted endpoint may
+     * deliver before it is released. 1 creates an endpoint for every
+     * message.
+     */
+    public void setEndpointReuseCount(int count) {
+        this.endpointReuseCount = count;
+    }
+
+    public int getEndpointReuseCount() {
+        return this.endpointReuseCount;
+    }
+
+    /**
+     * Time in milliseconds after which a reused MessageEndpoint is released.
+     * 0 does not limit the time.
+     */
+    public void setEndpointReuseTime(long millis) {
+        this.endpointReuseTime = millis;
+    }
+
+    public long getEndpointReuseTime() {
+        return this.endpointReuseTime;
+    }
+
+    /**
+     * Percentage of the ServerSessions of a pool that may be busy before
+     * message delivery on its connection is paused, so that the backlog
+     * stays on the broker instead of blocking provider threads in
+     * getServerSession(). 0 disables backpressure.
+     */
+    public void setBackpressureHighWaterMark(int percent) {
+        this.backpressureHighWaterMark = percent;
+    }
+
+    public int getBackpressureHighWaterMark() {
+        return this.backpressureHighWaterMark;
+    }
+
+    /**
+     * Percentage of busy ServerSessions at or below which a paused
+     * connection is resumed. Has to be lower than the high-water mark.
+     */
+    public void setBackpressureLowWaterMark(int percent) {
+        this.backpressureLowWaterMark = percent;
+    }
+
+    public int getBackpressureLowWaterMark() {
+        return this.backpressureLowWaterMark;
+    }
+
+    /**
+     * Timeout in milliseconds of the blocking receive of a sync receiver
+     * after a backlog has been drained.
+     */
+    public void setMinReceiveTimeout(long millis) {
+        this.minReceiveTimeout = millis;
+    }
+
+    public long getMinReceiveTimeout() {
+        return this.minReceiveTimeout;
+    }
+
+    /**
+     * Longest timeout in milliseconds of the blocking receive of an idle
+     * sync receiver. The timeout doubles from MinReceiveTimeout with each
+     * receive that does not return a message.
+     */
+    public void setMaxReceiveTimeout(long millis) {
+        this.maxReceiveTimeout = millis;
+    }
+
+    public long getMaxReceiveTimeout() {
+        return this.maxReceiveTimeout;
+    }
+
     public void setSendBadMessagesToDMD(boolean isDmd) {
         this.isDmd = isDmd;
     }
@@ -327,6 +546,80 @@ public class ActivationSpec extends GenericJMSRAProperties
             throw new InvalidPropertyException(msg);
         }
 
+        if ((getMinPoolSize() < 0) || (getMinPoolSize() > getMaxPoolSize())) {
+            String msg = sm.getString("minpoolsize_invalid");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if ((getConnectionCount() < 1) || (getConnectionCount() > getMaxPoolSize())) {
+            String msg = sm.getString("connectioncount_invalid");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if (getMaxMessagesPerSession() < 1) {
+            String msg = sm.getString("maxmessagespersession_invalid");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if (getEndpointReuseCount() < 1) {
+            String msg = sm.getString("endpointreusecount_invalid");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if (getEndpointReuseTime() < 0) {
+            String msg = sm.getString("endpointreusetime_lessthan_zero");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if ((getBackpressureHighWaterMark() < 0) || (getBackpressureHighWaterMark() > 100)
+            || ((getBackpressureHighWaterMark() > 0) && ((getBackpressureLowWaterMark() < 0)
+                || (getBackpressureLowWaterMark() >= getBackpressureHighWaterMark())))) {
+            String msg = sm.getString("backpressure_watermark_invalid");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if (getSharedSubscription() && ((getSubscriptionName() == null) ||
+            "".equals(getSubscriptionName().trim()))) {
+            String msg = sm.getString("sharedsubscription_name_missing");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if (getBatchSize() < 1) {
+            String msg = sm.getString("batchsize_invalid");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if (getBatchTimeout() < 0) {
+            String msg = sm.getString("batchtimeout_lessthan_zero");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if ((getTransactionBatchSize() < 1) || (getTransactionBatchTimeout() < 0)) {
+            String msg = sm.getString("transactionbatch_invalid");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if ((getPrefetchSize() < 0) || (getPrefetchWorkers() < 1)) {
+            String msg = sm.getString("prefetch_invalid");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if ((getReceiverGrowThreshold() < 1) || (getReceiverShrinkThreshold() < 1)
+            || (getReceiverScalingInterval() < 0)) {
+            String msg = sm.getString("elasticreceivers_invalid");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if ((getMinReceiveTimeout() < 1) || (getMaxReceiveTimeout() < getMinReceiveTimeout())) {
+            String msg = sm.getString("receivetimeout_invalid");
+            throw new InvalidPropertyException(msg);
+        }
+
+        if (getIdleTimeout() < 0) {
+            String msg = sm.getString("idletimeout_lessthan_zero");
+            throw new InvalidPropertyException(msg);
+        }
+
         if (getMaxWaitTime() < 0) {
             String msg = sm.getString("maxwaittime_lessthan_zero");
             throw new InvalidPropertyException(msg);
@@ -385,11 +678,34 @@ public class ActivationSpec extends GenericJMSRAProperties
         s = s + "{ConnectionFactoryJNDIName = " +
             getConnectionFactoryJndiName() + "},";
         s = s + "{SubscriptionName = " + getSubscriptionName() + "},";
+        s = s + "{SharedSubscription = " + getSharedSubscription() + "},";
         s = s + "{DestinationJNDIName = " + getDestinationJndiName() + "},";
         s = s + "{DestinationType = " + getDestinationType() + "},";
         s = s + "{DeadMessageDestinationType = " +
             getDeadMessageDestinationType() + "},";
         s = s + "{MaxPoolSize = " + getMaxPoolSize() + "},";
+        s = s + "{MinPoolSize = " + getMinPoolSize() + "},";
+        s = s + "{IdleTimeout = " + getIdleTimeout() + "},";
+        s = s + "{AdaptiveConcurrency = " + getAdaptiveConcurrency() + "},";
+        s = s + "{ElasticReceivers = " + getElasticReceivers() + "},";
+        s = s + "{ReceiverGrowThreshold = " + getReceiverGrowThreshold() + "},";
+        s = s + "{ReceiverShrinkThreshold = " + getReceiverShrinkThreshold() + "},";
+        s = s + "{ReceiverScalingInterval = " + getReceiverScalingInterval() + "},";
+        s = s + "{ConnectionCount = " + getConnectionCount() + "},";
+        s = s + "{MaxMessagesPerSession = " + getMaxMessagesPerSession() + "},";
+        s = s + "{EndpointReuseCount = " + getEndpointReuseCount() + "},";
+        s = s + "{EndpointReuseTime = " + getEndpointReuseTime() + "},";
+        s = s + "{BackpressureHighWaterMark = " + getBackpressureHighWaterMark() + "},";
+        s = s + "{BackpressureLowWaterMark = " + getBackpressureLowWaterMark() + "},";
+        s = s + "{BatchSize = " + getBatchSize() + "},";
+        s = s + "{BatchTimeout = " + getBatchTimeout() + "},";
+        s = s + "{LocalTransacted = " + getLocalTransacted() + "},";
+        s = s + "{TransactionBatchSize = " + getTransactionBatchSize() + "},";
+        s = s + "{TransactionBatchTimeout = " + getTransactionBatchTimeout() + "},";
+        s = s + "{PrefetchSize = " + getPrefetchSize() + "},";
+        s = s + "{PrefetchWorkers = " + getPrefetchWorkers() + "},";
+        s = s + "{MinReceiveTimeout = " + getMinReceiveTimeout() + "},";
+        s = s + "{MaxReceiveTimeout = " + getMaxReceiveTimeout() + "},";
         s = s + "{DestinationProperties = " + getDestinationProperties() +
             "},";
         s = s + "{DeadMessageDestinationJndiName = " +
@@ -452,6 +768,80 @@ public class ActivationSpec extends GenericJMSRAProperties
         batchSize = size;
     }
     
+    /**
+     * Time in milliseconds a sync receiver waits for more messages to
+     * fill a batch (BatchSize), after the first message of the batch has
+     * been received. 0 only batches the messages that are available
+     * right away.
+     */
+    public void setBatchTimeout(long millis) {
+        batchTimeout = millis;
+    }
+    
+    public long getBatchTimeout() {
+        return batchTimeout;
+    }
+    
+    /**
+     * Maximum number of messages an async XA endpoint delivers in one
+     * transaction. The messages of a transaction are the ones loaded into
+     * one ServerSession (see MaxMessagesPerSession). 1 delivers every
+     * message in its own transaction.
+     */
+    public void setTransactionBatchSize(int size) {
+        transactionBatchSize = size;
+    }
+    
+    public int getTransactionBatchSize() {
+        return transactionBatchSize;
+    }
+    
+    /**
+     * Time in milliseconds after which the transaction of a batch (see
+     * TransactionBatchSize) is committed, even if it holds less than
+     * TransactionBatchSize messages. 0 means no limit.
+     */
+    public void setTransactionBatchTimeout(long millis) {
+        transactionBatchTimeout = millis;
+    }
+    
+    public long getTransactionBatchTimeout() {
+        return transactionBatchTimeout;
+    }
+    
+    /**
+     * Number of messages a sync receiver of a non-transacted endpoint
+     * receives ahead of their delivery, into a local buffer from which
+     * PrefetchWorkers works deliver them. 0 disables the prefetch.
+     *
+     * The messages of the buffer are acknowledged together once they have
+     * been delivered, a failed message being redelivered from the buffer
+     * up to RedeliveryAttempts times, then sent to the DMD or dropped. The
+     * delivery is at-least-once: if the receiver stops before the window
+     * is acknowledged, or the DMD cannot be reached, the provider
+     * redelivers the whole window, including the messages already
+     * delivered, which the endpoint sees twice.
+     */
+    public void setPrefetchSize(int size) {
+        prefetchSize = size;
+    }
+    
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+    
+    /**
+     * Number of works delivering the prefetched messages of a sync
+     * receiver (see PrefetchSize).
+     */
+    public void setPrefetchWorkers(int workers) {
+        prefetchWorkers = workers;
+    }
+    
+    public int getPrefetchWorkers() {
+        return prefetchWorkers;
+    }
+    
     public void setHUAMode(boolean huamode){
         huaMode = huamode;
     }
@@ -460,6 +850,22 @@ public class ActivationSpec extends GenericJMSRAProperties
         return huaMode;
     }
     
+    /**
+     * Messages of a non-XA endpoint are consumed in a locally transacted
+     * session, which is committed after each successful delivery and
+     * rolled back when the delivery fails, so that the provider redelivers
+     * the message. A message whose delivery failed RedeliveryAttempts + 1
+     * times is sent to the DMD (SendBadMessagesToDMD) in the local
+     * transaction, or dropped. Ignored for XA delivery.
+     */
+    public void setLocalTransacted(boolean localTx) {
+        localTransacted = localTx;
+    }
+    
+    public boolean getLocalTransacted() {
+        return localTransacted;
+    }
+    
     public void setAckTimeOut(int timeout) {
         ackTimeOut = timeout;
     }
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.inbound;
+
+import com.sun.genericra.util.*;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Controls the number of resources of a pool that may be used concurrently
+ * for message delivery.
+ *
+ * In adaptive mode the limit is recomputed periodically from the delivery
+ * latency, the throughput and the pending demand reported by the pool,
+ * using additive increase / multiplicative decrease: the limit grows
+ * (doubling until the first back-off, then by one) while there is demand
+ * and deliveries are not getting slower, and is cut back when the average
+ * latency rises well above the best latency observed recently.
+ *
+ * The limit can be overridden (eg: through JMX), which suspends the
+ * adaptive behaviour until the override is cleared.
+ */
+public class ConcurrencyController {
+    private static Logger _logger;
+
+    static {
+        _logger = LogUtils.getLogger();
+    }
+
+    private static final long ADJUST_INTERVAL = 1000;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double THROUGHPUT_TOLERANCE = 0.9;
+    private static final double BACKOFF_RATIO = 0.75;
+    private static final int BASELINE_DRIFT = 16;
+
+    private AbstractJmsResourcePool pool;
+    private int minLimit;
+    private int maxLimit;
+    private boolean adaptive;
+    private volatile int limit;
+    private volatile int override = 0;
+    private AtomicLong completions = new AtomicLong(0);
+    private AtomicLong latency = new AtomicLong(0);
+    private long lastCompletions = 0;
+    private long lastLatency = 0;
+    private long baseline = 0;
+    private double lastThroughput = 0;
+    private boolean slowStart = true;
+    private boolean increased = false;
+    private TimerTask task = null;
+
+    public ConcurrencyController(AbstractJmsResourcePool pool, int minLimit,
+        int maxLimit, boolean adaptive) {
+        this(pool, minLimit, maxLimit, adaptive, 0);
+    }
+
+    public ConcurrencyController(AbstractJmsResourcePool pool, int minLimit,
+        int maxLimit, boolean adaptive, int override) {
+        this.pool = pool;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.max(1, Math.min(minLimit, this.maxLimit));
+        this.adaptive = adaptive;
+        this.limit = adaptive ? this.minLimit : this.maxLimit;
+        this.override = (override > 0) ? Math.min(override, this.maxLimit) : 0;
+    }
+
+    public boolean isAdaptive() {
+        return this.adaptive;
+    }
+
+    /**
+     * Number of resources that may be used concurrently.
+     */
+    public int getLimit() {
+        int o = this.override;
+        return (o > 0) ? o : this.limit;
+    }
+
+    public int getOverride() {
+        return this.override;
+    }
+
+    /**
+     * Fixes the limit to the given value. A value of zero or less clears
+     * the override.
+     */
+    public void setOverride(int o) {
+        int old = getLimit();
+        this.override = (o > 0) ? Math.min(o, maxLimit) : 0;
+        int current = getLimit();
+        _logger.log(Level.INFO, "Concurrency limit of the endpoint set to " + current +
+            ((this.override > 0) ? "" : " (adaptive)"));
+        if (current != old) {
+            pool.concurrencyLimitChanged(old, current);
+        }
+    }
+
+    /**
+     * Records the time taken by one message delivery.
+     */
+    public void completed(long nanos) {
+        completions.incrementAndGet();
+        latency.addAndGet(nanos);
+    }
+
+    public synchronized void start(Timer timer) {
+        if (!adaptive || (task != null)) {
+            return;
+        }
+        task = new TimerTask() {
+            public void run() {
+                adjust();
+            }
+        };
+        timer.schedule(task, ADJUST_INTERVAL, ADJUST_INTERVAL);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    synchronized void adjust() {
+        long c = completions.get();
+        long l = latency.get();
+        long count = c - lastCompletions;
+        long total = l - lastLatency;
+        lastCompletions = c;
+        lastLatency = l;
+
+        boolean demand = pool.hasPendingDemand();
+        if (count == 0) {
+            // Nothing has been delivered in this interval; there is no
+            // basis for a decision.
+            return;
+        }
+
+        long average = total / count;
+        double throughput = (count * 1000.0) / ADJUST_INTERVAL;
+        if ((baseline == 0) || (average < baseline)) {
+            baseline = average;
+        } else {
+            // Let the baseline follow lasting changes of the delivery time.
+            baseline += (average - baseline) / BASELINE_DRIFT;
+        }
+
+        int current = this.limit;
+        int next = current;
+        if (average > (baseline * LATENCY_TOLERANCE)) {
+            next = Math.max(minLimit, (int) (current * BACKOFF_RATIO));
+            slowStart = false;
+        } else if (demand && increased &&
+            (throughput < (lastThroughput * THROUGHPUT_TOLERANCE))) {
+            // The last increase did not pay off.
+            next = Math.max(minLimit, current - 1);
+            slowStart = false;
+        } else if (demand) {
+            next = Math.min(maxLimit, slowStart ? (current * 2) : (current + 1));
+        }
+        increased = (next > current);
+        lastThroughput = throughput;
+
+        if (next != current) {
+            this.limit = next;
+            if (_logger.isLoggable(Level.FINE)) {
+                _logger.log(Level.FINE, "Concurrency limit changed from " + current +
+                    " to " + next + ", average delivery time " + (average / 1000) +
+                    " us, baseline " + (baseline / 1000) + " us, throughput " +
+                    throughput + " msgs/s");
+            }
+            if (this.override == 0) {
+                pool.concurrencyLimitChanged(current, next);
+            }
+        }
+    }
+}
@@ -39,6 +39,7 @@ public class DeadMessageProducer {
     private Session session; 
     private String destinationType;
     private MessageProducer producer;
+    private boolean sharedSession = false;
 
     public DeadMessageProducer(Connection con, AbstractJmsResourcePool pool, Destination dest)
                 throws JMSException {
@@ -53,6 +54,20 @@ public class DeadMessageProducer {
         createProducer(dest);
     }
 
+    /**
+     * Producer sending in the given session, eg: in the local transaction
+     * of the failed message (LocalTransacted). The session is not closed
+     * by close().
+     */
+    public DeadMessageProducer(Session session, Destination dest)
+                throws JMSException {
+        this.session = session;
+        this.sharedSession = true;
+        // The type of the session is the one of the endpoint destination
+        destinationType = "";
+        createProducer(dest);
+    }
+
     private void createSession(Connection con) throws JMSException {
         if (destinationType.equals(Constants.QUEUE)) {
             session = ((QueueConnection) con).createQueueSession(false,
@@ -98,6 +113,9 @@ public class DeadMessageProducer {
             logger.log(Level.FINE, e.getMessage(), e);
         }
 
+        if (sharedSession) {
+            return;
+        }
         try {
             session.close();
         } catch (Exception e) {
@@ -11,42 +11,88 @@
 package com.sun.genericra.inbound;
 
 import com.sun.genericra.AbstractXAResourceType;
-import com.sun.genericra.XAResourceType;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
+
 import com.sun.genericra.util.LogUtils;
 
 import java.util.logging.*;
 
+
 /**
- * <code>XAResource</code> wrapper for Generic JMS Connector. This class
- * intercepts all calls to the actual XAResource to facilitate redelivery.
+ * <code>XAResource</code> wrapper for Generic JMS Connector, used for the
+ * inbound transactions. There is one instance per inbound session (created
+ * by the DeliveryHelper / SyncDeliveryHelper of the session), which is
+ * reset() before the transaction of the next message.
+ *
+ * The wrapper works in one of the following modes:
+ *
+ *   SIMPLE  : no redelivery (SimpleXAResourceProxy), all the calls are
+ *             passed to the actual XAResource.
+ *   DELAYED : redelivery (this class). start() is only passed to the
+ *             actual XAResource by startDelayedXA(), once the message has
+ *             been successfully delivered to the endpoint. The transactions
+ *             started by the TM for the failed delivery attempts are never
+ *             seen by the provider.
+ *   FIRST   : redelivery with UseFirstXAForRedelivery
+ *             (FirstXAResourceProxy). Each (re)delivery of the message
+ *             happens in a different transaction from appserver
+ *             perspective. However they are intercepted and only the XID of
+ *             the first one is actually used with the JMS provider.
+ *
+ * The branch goes through the states
+ *
+ *   IDLE --start--> (STARTING --startDelayedXA-->) ACTIVE --end--> ENDED
+ *                                                  ACTIVE <--> SUSPENDED
  *
- *  Basically each (re)delivery for message will happen in different transactions
- *  from appserver perspective. However they will be intercepted and only
- *  one XID will be actually used with JMS provider.
+ * STARTING only exists in DELAYED mode. In FIRST mode, the starts of the
+ * redeliveries received in ENDED state are ignored, the branch being
+ * reused, and a start with TMNOFLAGS after a rollback joins (or resumes)
+ * the branch. prepare(), commit() and rollback() do not change the state,
+ * the branch is cleared by reset().
  *
- *  @author Binod P.G
+ * @author Binod P.G
  */
 public class InboundXAResourceProxy extends AbstractXAResourceType {
-    private XAResource xar = null;
-    private boolean toRollback = true;
-    private boolean rolledback = false;
-    private boolean suspended = false;
-    private boolean endCalled = false;
+    static final int SIMPLE = 0;
+    static final int DELAYED = 1;
+    static final int FIRST = 2;
+
+    static final int IDLE = 0;
+    static final int STARTING = 1;
+    static final int ACTIVE = 2;
+    static final int SUSPENDED = 3;
+    static final int ENDED = 4;
+
+    private static final String[] STATES = {
+        "IDLE", "STARTING", "ACTIVE", "SUSPENDED", "ENDED"
+    };
+
     private static Logger logger;
-    private Xid startXid = null;
-      static {
+
+    static {
         logger = LogUtils.getLogger();
     }
-  
-    private int startflags;
-    private boolean startedDelayedXA = false;
-    
+
+    private XAResource xar = null;
+    private int mode;
+    private int state = IDLE;
+    /* XID of the branch with the provider */
+    private Xid branchXid = null;
+    /* Flags of the delayed start */
+    private int startflags = XAResource.TMNOFLAGS;
+    private boolean toRollback = true;
+    private boolean rolledback = false;
+
     public InboundXAResourceProxy(XAResource xar) {
+        this(xar, DELAYED);
+    }
+
+    InboundXAResourceProxy(XAResource xar, int mode) {
         this.xar = xar;
+        this.mode = mode;
     }
 
     /**
@@ -59,24 +105,19 @@ public class InboundXAResourceProxy extends AbstractXAResourceType {
      *            protocol to commit the work done on behalf of xid.
      */
     public void commit(Xid xid, boolean onePhase) throws XAException {
-        
+        xid = xidFor(xid);
         debugxid("Commiting inbound transaction with ID ", xid);
-             
-        if (xid != null)
-        {
-            debugxid("Committed inbound transaction with ID ", xid);
-            xar.commit(xid, onePhase);
-        }
-        else
-        {            
-            debugxid("Committed inbound transaction with ID " , startXid);
-            xar.commit(startXid, onePhase);   
-        }
+        xar.commit(xid, onePhase);
+        debugxid("Committed inbound transaction with ID ", xid);
     }
 
     /**
      * Ends the work performed on behalf of a transaction branch.
      *
+     * Ignored if the branch has already been ended (the redelivery of the
+     * message in FIRST mode, the DMD transaction), or in DELAYED mode if
+     * it has not been started yet (the delivery failed).
+     *
      * @param xid
      *            A global transaction identifier that is the same as what was
      *            used previously in the start method.
@@ -84,69 +125,17 @@ public class InboundXAResourceProxy extends AbstractXAResourceType {
      *            One of TMSUCCESS, TMFAIL, or TMSUSPEND
      */
     public void end(Xid xid, int flags) throws XAException {
-        debugxid("Ending inbound transaction with ID ", xid);
-        
-        if (xid == null)
-        {
-            xid = startXid;
-        }
-        
-        if ((startedDelayedXA == true) && (endCalled == false))
-        {
-            /**
-             * Lets make sure that we are calling end only for the transaction
-             * that was actually started.
-             *
-             */
-            debugxid("Ended inbound transaction with ID ", xid);
-            endCalled = true; 
-            xar.end(xid, flags);
-        }
-        
-
-        /*
-        if (beingRedelivered() == false) {
-            debug("XAResourceProxy END , Xid ended is " +
-                printXid(savedXid()));
-
-            try {
-                Thread.sleep(250);
-                xar.end(savedXid(), flags);
-            } catch (XAException xae) {
-                debug("Got an exception at XAR end, " +
-                    savedXid());
-                debug("Error Code is " + xae.errorCode);
-
-                if (xae.errorCode == XAException.XA_RBROLLBACK) {
-                    debug("Got an RB_ROLLBACK error code");
-                }
-
-                xae.printStackTrace();
-
-                // xar.rollback(savedXid());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            if (flags == XAResource.TMSUSPEND) {
-                suspended = true;
-            }
-
-            endCalled = true;
+        debugflags("end", flags);
+        if ((state == ENDED) ||
+            ((mode == DELAYED) && ((state == IDLE) || (state == STARTING)))) {
+            return;
         }
-         */
-    }
-
-    /**
-     * When message is being redelivered, i.e, end is called
-     * and that too without TMSUSPEND flag, return true.
-     *
-     * This also assumes that, when the message is being
-     * redelivered, the MDB wouldnt be coded to such that
-     * transaction would need to be suspended.
-     */
-    private boolean beingRedelivered() {
-        return (endCalled == true) && (suspended == false);
+        xid = xidFor(xid);
+        debugxid("Ending inbound transaction with ID ", xid);
+        // Change the state first, so that end is not called again if it fails
+        state = (flags == XAResource.TMSUSPEND) ? SUSPENDED : ENDED;
+        xar.end(xid, flags);
+        debugxid("Ended inbound transaction with ID ", xid);
     }
 
     /**
@@ -157,7 +146,7 @@ public class InboundXAResourceProxy extends AbstractXAResourceType {
      *            A global transaction identifier
      */
     public void forget(Xid xid) throws XAException {
-        xar.forget(xid);
+        xar.forget(xidFor(xid));
     }
 
     /**
@@ -181,18 +170,9 @@ public class InboundXAResourceProxy extends AbstractXAResourceType {
      * @return true if it's the same RM instance; otherwise false.
      */
     public boolean isSameRM(XAResource xares) throws XAException {
-        XAResource inxa = xares;
-
-        if (xares instanceof XAResourceType) {
-            XAResourceType wrapper = (XAResourceType) xares;
-            inxa = (XAResource) wrapper.getWrappedObject();
-
-            if (!compare(wrapper)) {
-                return false;
-            }
-        }
-
-        return xar.isSameRM(inxa);
+        boolean result = isSameRM(xar, xares);
+        debug("isSameRM returns : " + result);
+        return result;
     }
 
     /**
@@ -208,17 +188,9 @@ public class InboundXAResourceProxy extends AbstractXAResourceType {
      *         in the prepare method.
      */
     public int prepare(Xid xid) throws XAException {
+        xid = xidFor(xid);
         debugxid("Preparing inbound transaction with ID ", xid);
-        if (xid == null)
-        {
-            debugxid("Prepared inbound transactionw with ID ", startXid);
-            return xar.prepare(startXid);
-        }
-        else
-        {
-            debugxid("Prepared inbound transactionw with ID ", xid);
-            return xar.prepare(xid);
-        }
+        return xar.prepare(xid);
     }
 
     /**
@@ -239,20 +211,20 @@ public class InboundXAResourceProxy extends AbstractXAResourceType {
 
     /**
      * Inform the resource manager to roll back work done on behalf of a
-     * transaction branch
+     * transaction branch. Ignored after setToRollback(false), that is
+     * when the delivery failed and the message is redelivered in the same
+     * branch (or the branch was never started).
      *
      * @param xid
      *            A global transaction identifier
      */
     public void rollback(Xid xid) throws XAException {
+        xid = xidFor(xid);
         debugxid("Rolling back inbound transaction with ID ", xid);
-
-
-        //rolledback = true;
-
+        rolledback = true;
         if (toRollback) {
-            xar.rollback(xid);            
-            debugxid("Rolled back transaction with ID ", xid);
+            xar.rollback(xid);
+            debugxid("Rolled back inbound transaction with ID ", xid);
         }
     }
 
@@ -278,51 +250,42 @@ public class InboundXAResourceProxy extends AbstractXAResourceType {
      * @return flags One of TMNOFLAGS, TMJOIN, or TMRESUME
      */
     public void start(Xid xid, int flags) throws XAException {
-
-
-        if (startedDelayedXA)
-        {
-            debugxid("Delayed start of inbound transaction with ID ", startXid);
-            xar.start(xid, flags);            
-        }
-        else
-        {
-            startXid = xid;
-            if (flags != xar.TMRESUME){
-                startflags = flags;
-            }            
-        }
-        
-
-        /*
-        
-        if (beingRedelivered()) {
-            debug("redelivering " + printXid(xid));
-
-            return;
-        }
-
-        int actualflag = flags;
-
-        if (this.savedxid == null) {
-            debug("DBG : Starting XA id" + printXid(xid));
-            this.savedxid = xid;
-        } else if (flags == XAResource.TMNOFLAGS) {
-            if (rolledback) {
-                rolledback = false;
-                endCalled = false;
-
-                if (suspended) {
-                    suspended = false;
-                    actualflag = XAResource.TMRESUME;
-                } else {
-                    actualflag = XAResource.TMJOIN;
+        debugflags("start", flags);
+        switch (state) {
+        case IDLE:
+        case STARTING:
+            branchXid = xid;
+            if (mode == DELAYED) {
+                // Started by startDelayedXA()
+                if (flags != XAResource.TMRESUME) {
+                    startflags = flags;
                 }
+                state = STARTING;
+                debugxid("Delaying the start of inbound transaction with ID ", xid);
+                return;
+            }
+            break;
+        case ENDED:
+            if (mode == FIRST) {
+                // Redelivery, the message stays in the first branch
+                debugxid("Redelivering in inbound transaction with ID ", branchXid);
+                return;
+            }
+            branchXid = xid;
+            break;
+        case SUSPENDED:
+        case ACTIVE:
+            if ((mode == FIRST) && (flags == XAResource.TMNOFLAGS) && rolledback) {
+                // New transaction of the TM for the rolled back branch
+                rolledback = false;
+                flags = (state == SUSPENDED) ? XAResource.TMRESUME : XAResource.TMJOIN;
             }
+            break;
         }
-
-        xar.start(savedXid(), actualflag);
-         */
+        Xid toStart = (mode == FIRST) ? branchXid : xid;
+        debugxid("Starting inbound transaction with ID ", toStart);
+        xar.start(toStart, flags);
+        state = ACTIVE;
     }
 
     public Object getWrappedObject() {
@@ -333,52 +296,104 @@ public class InboundXAResourceProxy extends AbstractXAResourceType {
         toRollback = flag;
     }
 
+    /**
+     * True if end() has been passed to the actual XAResource since the
+     * branch was started (including with TMSUSPEND).
+     */
     public boolean endCalled() {
-        return endCalled;
+        return (state == ENDED) || (state == SUSPENDED);
     }
 
-    /*
-    private Xid savedXid() {
-        return this.savedxid;
-    }
+    /**
+     * True if the start of the branch is delayed until the message has been
+     * delivered (see AbstractXAResourceType.compare()).
      */
+    public boolean delaysStart() {
+        return (mode == DELAYED);
+    }
+
+    public void reset() {
+        state = IDLE;
+        branchXid = null;
+        startflags = XAResource.TMNOFLAGS;
+        toRollback = true;
+        rolledback = false;
+    }
 
-    
-    public void startDelayedXA()
-    {
+    public void startDelayedXA() {
+        if (mode == SIMPLE) {
+            debug("startDelayedXA ignored, the start is not delayed without redelivery");
+            return;
+        }
         /**
          * This is done to cover the redelivery feature.
          * We make sure that start on an XA is called only when the message
-         * delivery to the endpoint is successful. 
+         * delivery to the endpoint is successful.
          * If not there will be new transactions started by TM for every
-         * delivery attempt, and the same cannot be mnanaged with the broker's RM. 
+         * delivery attempt, and the same cannot be mnanaged with the broker's RM.
+         * With TransactionBatchSize, the following messages of the
+         * transaction use the branch started for the first one.
+         * In FIRST mode the branch has already been started by start().
          */
-        try
-        {
-            debugxid("Delayed start of inboudn transaction (in startDelated) ",startXid);
-            xar.start(startXid, startflags);            
+        if (state != STARTING) {
+            return;
         }
-        catch (XAException xae)
-        {
+        try {
+            debugxid("Delayed start of inbound transaction with ID ", branchXid);
+            xar.start(branchXid, startflags);
+        } catch (Exception e) {
             // What can we do with this ?
-            // Only make sure that end fails.
-            xae.printStackTrace();
+            // end is still called, and fails.
+            logger.log(Level.SEVERE, "Delayed start of the inbound transaction failed : " +
+                e.getMessage(), e);
+        }
+        state = ACTIVE;
+    }
+
+    private Xid xidFor(Xid xid) {
+        if ((xid == null) || (mode == FIRST)) {
+            return branchXid;
+        }
+        return xid;
+    }
+
+    String convertFlag(int i) {
+        if (i == XAResource.TMJOIN) {
+            return "TMJOIN";
         }
-        catch (Exception  e)
-        {
-            e.printStackTrace();
+        if (i == XAResource.TMNOFLAGS) {
+            return "TMNOFLAGS";
         }
-        startedDelayedXA = true;
+        if (i == XAResource.TMSUCCESS) {
+            return "TMSUCCESS";
+        }
+        if (i == XAResource.TMSUSPEND) {
+            return "TMSUSPEND";
+        }
+        if (i == XAResource.TMRESUME) {
+            return "TMRESUME";
+        }
+        if (i == XAResource.TMFAIL) {
+            return "TMFAIL";
+        }
+        return "" + i;
     }
-    
+
     void debug(String s) {
-        logger.log(Level.FINEST, "InboundXAResourceProxy : " + s);
-    }    
-    
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.log(Level.FINEST, "InboundXAResourceProxy : " + s);
+        }
+    }
+
+    void debugflags(String s, int flags) {
+        if (logger.isLoggable(Level.FINEST)) {
+            debug(s + " " + convertFlag(flags) + " in state " + STATES[state]);
+        }
+    }
+
     void debugxid(String s, Xid xid) {
-        if (logger.getLevel() == Level.FINEST) {
+        if (logger.isLoggable(Level.FINEST)) {
             logger.log(Level.FINEST, s + printXid(xid));
         }
     }
-
 }
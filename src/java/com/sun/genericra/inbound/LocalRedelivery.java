@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.inbound;
+
+import com.sun.genericra.util.*;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.jms.Destination;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.Session;
+
+
+/**
+ * Failed deliveries of a locally transacted session (LocalTransacted).
+ *
+ * The session is rolled back so that the provider redelivers the message,
+ * RedeliveryInterval seconds later, up to RedeliveryAttempts times. After
+ * that the message is sent to the dead message destination in the local
+ * transaction of the session (or dropped if SendBadMessagesToDMD is not
+ * set) and the session is committed, so that a poison message does not
+ * block the session.
+ *
+ * The deliveries of a message are counted with JMSXDeliveryCount. For the
+ * providers which do not set it, the failures of the last failed message
+ * of the session are counted (a redelivered message is delivered to the
+ * session again after the rollback).
+ *
+ * There is one instance per delivery helper, it is only used by the
+ * thread delivering the messages of the session.
+ */
+public class LocalRedelivery {
+    private static Logger _logger;
+
+    static {
+        _logger = LogUtils.getLogger();
+    }
+
+    private ActivationSpec spec;
+    private String failedId = null;
+    private int failures = 0;
+
+    public LocalRedelivery(ActivationSpec spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * Number of times the message has been delivered, this failed
+     * delivery included.
+     */
+    int deliveryCount(Message msg) {
+        String id = null;
+        int count = 0;
+        try {
+            id = msg.getJMSMessageID();
+            if (msg.propertyExists("JMSXDeliveryCount")) {
+                count = msg.getIntProperty("JMSXDeliveryCount");
+            }
+        } catch (Exception e) {
+            _logger.log(Level.FINE, "Cannot read the delivery count : " + e.getMessage());
+        }
+        if ((id != null) && id.equals(failedId)) {
+            failures++;
+        } else {
+            failedId = id;
+            failures = 1;
+        }
+        return Math.max(count, failures);
+    }
+
+    /**
+     * Completes the local transaction of the session after the delivery of
+     * msg failed.
+     *
+     * @param dmd dead message destination, or null.
+     */
+    public void deliveryFailed(Session session, Message msg, Destination dmd)
+        throws JMSException {
+        int count = deliveryCount(msg);
+        if (count <= spec.getRedeliveryAttempts()) {
+            try {
+                Thread.sleep(spec.getRedeliveryInterval() * 1000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            session.rollback();
+            _logger.log(Level.FINE, "Rolled back the message after failed delivery " +
+                    count);
+            return;
+        }
+        if (spec.getSendBadMessagesToDMD() && (dmd != null)) {
+            DeadMessageProducer producer = null;
+            try {
+                producer = new DeadMessageProducer(session, dmd);
+                producer.send(msg);
+            } catch (JMSException e) {
+                // The message comes back and the DMD is tried again
+                _logger.log(Level.SEVERE, "FAILED : sending message to DMD : " +
+                        e.getMessage(), e);
+                session.rollback();
+                return;
+            } finally {
+                if (producer != null) {
+                    producer.close();
+                }
+            }
+            _logger.log(Level.INFO, "Sent the message to the DMD after " + count +
+                    " failed deliveries");
+        } else {
+            _logger.log(Level.WARNING, "Dropping the message after " + count +
+                    " failed deliveries, no dead message destination is used");
+        }
+        session.commit();
+    }
+}
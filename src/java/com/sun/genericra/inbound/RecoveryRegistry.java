@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.inbound;
+
+import com.sun.genericra.GenericJMSRA;
+import com.sun.genericra.util.*;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.jms.JMSException;
+import jakarta.jms.XAConnection;
+import jakarta.jms.XAConnectionFactory;
+import jakarta.jms.XASession;
+
+import jakarta.resource.spi.work.Work;
+
+import javax.transaction.xa.XAResource;
+
+
+/**
+ * Hands out the XAResources the application server uses for crash
+ * recovery (ResourceAdapter.getXAResources()).
+ *
+ * The activation specs are grouped by resource manager, that is by
+ * connection factory, credentials and destination type, and one
+ * XAResource is returned per group:
+ *   - if an endpoint of the group is active, the XAResource comes from the
+ *     connection of its pool (see
+ *     AbstractJmsResourcePool.getRecoveryXAResource()),
+ *   - otherwise one XA connection is opened for the group. The connections
+ *     of the different groups are opened in parallel. They are kept for
+ *     the next recovery scans, and closed once they have not been used for
+ *     IDLE_TIMEOUT, or when the resource adapter stops.
+ * A connection is opened once even if scans overlap, and a connection
+ * that is still being opened when it is closed (or after OPEN_TIMEOUT) is
+ * closed as soon as it has been opened.
+ */
+public class RecoveryRegistry {
+    private static Logger _logger;
+
+    static {
+        _logger = LogUtils.getLogger();
+    }
+
+    private static final int OPEN_PARALLELISM = 8;
+    private static final long OPEN_TIMEOUT = 60 * 1000;
+    private static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+
+    private GenericJMSRA ra;
+    private Map<String, RecoveryConnection> connections =
+        new HashMap<String, RecoveryConnection>();
+    private TimerTask idleTask = null;
+
+    public RecoveryRegistry(GenericJMSRA ra) {
+        this.ra = ra;
+    }
+
+    /**
+     * Returns one XAResource per resource manager of the given activation
+     * specs. The specs that do not support XA are skipped.
+     *
+     * @param specs activation specs given by the application server.
+     * @param active consumers of the active endpoints.
+     */
+    public XAResource[] getXAResources(jakarta.resource.spi.ActivationSpec[] specs,
+        Collection<AbstractConsumer> active) {
+        Map<String, ActivationSpec> groups = new LinkedHashMap<String, ActivationSpec>();
+        for (int i = 0; i < specs.length; i++) {
+            if ((specs[i] instanceof ActivationSpec) &&
+                ((ActivationSpec) specs[i]).getSupportsXA()) {
+                ActivationSpec spec = (ActivationSpec) specs[i];
+                String key = keyOf(spec);
+                if (!groups.containsKey(key)) {
+                    groups.put(key, spec);
+                }
+            }
+        }
+
+        Map<String, AbstractConsumer> consumers = new HashMap<String, AbstractConsumer>();
+        for (AbstractConsumer consumer : active) {
+            if (consumer.getSpec().getSupportsXA()) {
+                consumers.put(keyOf(consumer.getSpec()), consumer);
+            }
+        }
+        // The pools are synchronized, they are not called holding the registry lock
+        Map<String, XAResource> activeXars = new HashMap<String, XAResource>();
+        for (String key : groups.keySet()) {
+            XAResource xar = getActiveXAResource(consumers.get(key));
+            if (xar != null) {
+                activeXars.put(key, xar);
+            }
+        }
+
+        List<XAResource> xars = new ArrayList<XAResource>();
+        List<RecoveryConnection> toOpen = new ArrayList<RecoveryConnection>();
+        synchronized (this) {
+            for (Map.Entry<String, ActivationSpec> group : groups.entrySet()) {
+                String key = group.getKey();
+                XAResource xar = activeXars.get(key);
+                if (xar != null) {
+                    // The endpoint is active again, its connection is used.
+                    closeConnection(key);
+                    xars.add(xar);
+                    continue;
+                }
+                RecoveryConnection rc = connections.get(key);
+                if (rc == null) {
+                    rc = new RecoveryConnection(group.getValue());
+                    connections.put(key, rc);
+                }
+                if (!rc.isOpen()) {
+                    toOpen.add(rc);
+                }
+            }
+        }
+
+        open(toOpen);
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (String key : groups.keySet()) {
+                RecoveryConnection rc = connections.get(key);
+                XAResource xar = (rc == null) ? null : rc.getXAResource();
+                if (xar != null) {
+                    rc.lastUsed = now;
+                    xars.add(xar);
+                }
+            }
+            scheduleIdleCheck();
+        }
+        _logger.log(Level.FINE, "Returning " + xars.size() + " XAResources for " +
+            specs.length + " activation specs");
+        return xars.toArray(new XAResource[0]);
+    }
+
+    /**
+     * Closes all the recovery connections.
+     */
+    public synchronized void close() {
+        if (idleTask != null) {
+            idleTask.cancel();
+            idleTask = null;
+        }
+        for (RecoveryConnection rc : connections.values()) {
+            rc.close();
+        }
+        connections.clear();
+    }
+
+    private XAResource getActiveXAResource(AbstractConsumer consumer) {
+        if ((consumer == null) || (consumer.getPool() == null)) {
+            return null;
+        }
+        try {
+            return consumer.getPool().getRecoveryXAResource();
+        } catch (JMSException e) {
+            _logger.log(Level.FINE, "No recovery XAResource from the active endpoint : " +
+                e.getMessage());
+            return null;
+        }
+    }
+
+    private void closeConnection(String key) {
+        RecoveryConnection rc = connections.remove(key);
+        if (rc != null) {
+            rc.close();
+        }
+    }
+
+    /**
+     * Opens the given connections using up to OPEN_PARALLELISM works, the
+     * calling thread being one of them.
+     */
+    private void open(List<RecoveryConnection> toOpen) {
+        final ConcurrentLinkedQueue<RecoveryConnection> queue =
+            new ConcurrentLinkedQueue<RecoveryConnection>(toOpen);
+        int workers = Math.min(OPEN_PARALLELISM, queue.size()) - 1;
+        final CountDownLatch done = new CountDownLatch(Math.max(0, workers));
+        for (int i = 0; i < workers; i++) {
+            Work w = new Work() {
+                public void run() {
+                    try {
+                        openQueued(queue);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+
+                public void release() {
+                    // For now do nothing.
+                }
+            };
+            try {
+                ra.getWorkManager().scheduleWork(w);
+            } catch (Exception e) {
+                // The calling thread opens what is left.
+                done.countDown();
+            }
+        }
+        openQueued(queue);
+        try {
+            if (!done.await(OPEN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                _logger.log(Level.WARNING, "Timed out opening the connections for recovery");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void openQueued(ConcurrentLinkedQueue<RecoveryConnection> queue) {
+        RecoveryConnection rc;
+        while ((rc = queue.poll()) != null) {
+            try {
+                rc.open();
+            } catch (Exception e) {
+                _logger.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void scheduleIdleCheck() {
+        if ((idleTask != null) || connections.isEmpty()) {
+            return;
+        }
+        idleTask = new TimerTask() {
+            public void run() {
+                closeIdleConnections();
+            }
+        };
+        try {
+            ra.getTimer().schedule(idleTask, IDLE_TIMEOUT, IDLE_TIMEOUT);
+        } catch (Exception e) {
+            _logger.log(Level.FINE, "Recovery connections are closed when the RA stops : " +
+                e.getMessage());
+            idleTask = null;
+        }
+    }
+
+    synchronized void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        Iterator<RecoveryConnection> it = connections.values().iterator();
+        while (it.hasNext()) {
+            RecoveryConnection rc = it.next();
+            if ((now - rc.lastUsed) >= IDLE_TIMEOUT) {
+                rc.close();
+                it.remove();
+            }
+        }
+        if (connections.isEmpty() && (idleTask != null)) {
+            idleTask.cancel();
+            idleTask = null;
+        }
+    }
+
+    /**
+     * Identifies the resource manager of an activation spec: connection
+     * factory, credentials and destination type.
+     */
+    static String keyOf(ActivationSpec spec) {
+        StringBuffer key = new StringBuffer();
+        key.append(spec.getProviderIntegrationMode()).append('|');
+        if (Constants.JNDI_BASED.equalsIgnoreCase(spec.getProviderIntegrationMode())) {
+            key.append(spec.getConnectionFactoryJndiName()).append('|');
+            key.append(spec.getJndiProperties()).append('|');
+        } else {
+            key.append(spec.getXAConnectionFactoryClassName()).append('|');
+            key.append(spec.getXAQueueConnectionFactoryClassName()).append('|');
+            key.append(spec.getXATopicConnectionFactoryClassName()).append('|');
+            key.append(spec.getConnectionFactoryProperties()).append('|');
+        }
+        key.append(spec.getDestinationType()).append('|');
+        key.append(spec.getUserName()).append('|');
+        key.append(digest(spec.getPassword()));
+        return key.toString();
+    }
+
+    /**
+     * SHA-256 digest of the password, so that the keys of the registry do
+     * not keep it in clear text.
+     */
+    private static String digest(String password) {
+        if (password == null) {
+            return "";
+        }
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(
+                password.getBytes("UTF-8"));
+            StringBuffer hex = new StringBuffer();
+            for (int i = 0; i < d.length; i++) {
+                hex.append(Integer.toHexString((d[i] & 0xff) | 0x100).substring(1));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            // SHA-256 and UTF-8 are supported by every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * XA connection opened for the recovery of inactive endpoints. open()
+     * may take long and is not made holding the registry lock; close()
+     * does not wait for it.
+     */
+    private static class RecoveryConnection {
+        private ActivationSpec spec;
+        private Object openLock = new Object();
+        private XAConnection con = null;
+        private XAResource xar = null;
+        private boolean closed = false;
+        private long lastUsed = System.currentTimeMillis();
+
+        RecoveryConnection(ActivationSpec spec) {
+            this.spec = spec;
+        }
+
+        synchronized boolean isOpen() {
+            return (con != null);
+        }
+
+        /**
+         * XAResource of the connection, null if it is not open.
+         */
+        synchronized XAResource getXAResource() {
+            return (con != null) ? xar : null;
+        }
+
+        /**
+         * Opens the connection, unless it is already open or has been
+         * closed. Overlapping calls open it once.
+         */
+        void open() throws Exception {
+            synchronized (openLock) {
+                synchronized (this) {
+                    if (closed || (con != null)) {
+                        return;
+                    }
+                }
+                // Only builds the administered objects, no connection is made.
+                AbstractConsumer consumer = EndpointConsumerFactory.createEndpointConsumer(spec);
+                XAConnection c = AbstractJmsResourcePool.createXAConnection(
+                    (XAConnectionFactory) consumer.getConnectionFactory(), spec);
+                XAResource x = null;
+                try {
+                    XASession session = c.createXASession();
+                    x = session.getXAResource();
+                } catch (JMSException e) {
+                    c.close();
+                    throw e;
+                }
+                synchronized (this) {
+                    if (!closed) {
+                        con = c;
+                        xar = x;
+                        c = null;
+                    }
+                }
+                if (c != null) {
+                    // Closed while it was being opened
+                    _logger.log(Level.FINE, "Closing a recovery connection opened too late");
+                    close(c);
+                    return;
+                }
+                _logger.log(Level.FINE, "Opened a connection for recovery : " + x);
+            }
+        }
+
+        void close() {
+            XAConnection c = null;
+            synchronized (this) {
+                closed = true;
+                c = con;
+                con = null;
+                xar = null;
+            }
+            if (c != null) {
+                close(c);
+            }
+        }
+
+        private static void close(XAConnection c) {
+            try {
+                c.close();
+            } catch (Exception e) {
+                _logger.log(Level.FINE, "Closing a recovery connection failed : " +
+                    e.getMessage());
+            }
+        }
+    }
+}
@@ -22,21 +22,37 @@ import jakarta.resource.*;
 import jakarta.resource.spi.*;
 import jakarta.resource.spi.endpoint.*;
 
+import java.util.concurrent.TimeUnit;
+
+import com.sun.genericra.inbound.sync.TxMgr;
 import javax.transaction.xa.XAResource;
 
 
 /**
  * Helper class that delivers a message to MDB.
  * Important assumptions:
- * - There is one delivery helper for each message(delivery).
+ * - There is one delivery helper for each ServerSession, it is reset
+ *   before each run of the ServerSession. If
+ *   the provider loaded several messages into the session
+ *   (MaxMessagesPerSession), they are delivered one after the other using
+ *   the same endpoint, each in its own beforeDelivery/afterDelivery.
+ *   With TransactionBatchSize, up to that many of them share one
+ *   beforeDelivery/afterDelivery, and thus one transaction. If one of
+ *   them fails, the transaction is rolled back and the provider
+ *   redelivers the messages; a redelivered message is delivered in a
+ *   transaction of its own, so that the failed one goes through the
+ *   usual redelivery and DMD handling on its own.
  * - Redelivery will be carried out by the same DeliveryHelper.
  * @author Binod P.G
  */
 public class DeliveryHelper {
     private static Logger _logger;
     
+    private static TxMgr mTxMgr;
+    
     static {
         _logger = LogUtils.getLogger();
+        mTxMgr = new TxMgr();
     }
     
     com.sun.genericra.inbound.ActivationSpec spec;
@@ -45,29 +61,40 @@ public class DeliveryHelper {
     Message msg = null;
     Destination dest = null;
     boolean transacted;
+    boolean localTransacted;
+    LocalRedelivery redelivery;
     boolean sentToDmd = false;
     boolean redeliveryFailed = false;
+    int delivered = 0;
+    int txBatchSize;
+    long txBatchTimeout;
+    int inTransaction = 0;
+    int transactionLimit = 1;
+    long transactionStart = 0;
     
     public DeliveryHelper(InboundJmsResource jmsResource,
             InboundJmsResourcePool pool) {
         this.spec = pool.getConsumer().getSpec();
         this.jmsResource = jmsResource;
         this.transacted = pool.isTransacted();
+        this.txBatchSize = pool.getTransactionBatchSize();
+        this.txBatchTimeout = TimeUnit.MILLISECONDS.toNanos(
+                this.spec.getTransactionBatchTimeout());
+        this.localTransacted = pool.isLocalTransacted();
+        this.redelivery = new LocalRedelivery(this.spec);
         
         AbstractXAResourceType xarObject = null;
         
         if (redeliveryRequired()) {
-            if (this.spec.getUseFirstXAForRedelivery()) {                
-		_logger.log(Level.FINE,"Using First XA redelivery logic");
+            if (this.spec.getUseFirstXAForRedelivery()) {
+                _logger.log(Level.FINE,"Using First XA redelivery logic");
                 xarObject = new FirstXAResourceProxy(jmsResource.getXAResource());
             } else {
-		_logger.log(Level.FINE,"Using Inbound XA redelivery logic");
+                _logger.log(Level.FINE,"Using Inbound XA redelivery logic");
                 xarObject = new InboundXAResourceProxy(jmsResource.getXAResource());
             }
         } else {
             xarObject = new SimpleXAResourceProxy(jmsResource.getXAResource());
-            
-            //this.xar = jmsResource.getXAResource();
         }
         
         xarObject.setRMPolicy(this.spec.getRMPolicy());
@@ -75,6 +102,20 @@ public class DeliveryHelper {
         this.xar = xarObject;
     }
     
+    /**
+     * Clears the state of the previous delivery, so that the helper can be
+     * used for the next run of the ServerSession.
+     */
+    public void reset() {
+        this.msg = null;
+        this.dest = null;
+        this.sentToDmd = false;
+        this.redeliveryFailed = false;
+        this.delivered = 0;
+        this.inTransaction = 0;
+        ((AbstractXAResourceType) this.xar).reset();
+    }
+    
     public boolean redeliveryRequired() {
         return this.transacted && (this.spec.getRedeliveryAttempts() > 0);
     }
@@ -175,11 +216,86 @@ public class DeliveryHelper {
     }
     
     public void deliver(Message message, Destination d){
+        boolean alone = (txBatchSize > 1) && isRedelivered(message);
+        if ((delivered > 0) && (alone || !continueTransaction())) {
+            nextDelivery();
+        }
+        if (inTransaction == 0) {
+            transactionStart = System.nanoTime();
+            transactionLimit = alone ? 1 : txBatchSize;
+        }
+        inTransaction++;
+        delivered++;
         this.msg = message;
         this.dest = d;
         deliver();
     }
     
+    /**
+     * Completes the delivery of the previous message loaded into the
+     * session (including sending it to the DMD if required) and prepares
+     * the endpoint and the XAResource for the next message.
+     */
+    private void nextDelivery() {
+        _logger.log(Level.FINEST, "Completing delivery of message " + delivered +
+                " of the session");
+        this.jmsResource.afterDelivery();
+        if (markedForDMD()) {
+            sendMessageToDMD();
+        }
+        ((AbstractXAResourceType) this.xar).reset();
+        this.inTransaction = 0;
+        try {
+            this.jmsResource.beforeDelivery();
+        } catch (Exception e) {
+            _logger.log(Level.SEVERE, "Cannot prepare the endpoint for the next message "
+                    + e.getMessage());
+        }
+    }
+    
+    /**
+     * True if the provider redelivers the message, eg: after the rollback
+     * of a transaction of several messages.
+     */
+    private boolean isRedelivered(Message message) {
+        try {
+            return message.getJMSRedelivered();
+        } catch (JMSException e) {
+            // Deliver it on its own, to be safe
+            return true;
+        }
+    }
+    
+    /**
+     * True if the next message loaded into the session is delivered in the
+     * transaction of the previous one (TransactionBatchSize).
+     */
+    private boolean continueTransaction() {
+        if ((inTransaction == 0) || (inTransaction >= transactionLimit) || markedForDMD()) {
+            return false;
+        }
+        return (txBatchTimeout <= 0) ||
+            ((System.nanoTime() - transactionStart) < txBatchTimeout);
+    }
+    
+    /**
+     * Marks the transaction of the messages delivered so far rollback
+     * only, after the delivery of one of them failed.
+     */
+    private void rollbackTransaction() {
+        _logger.log(Level.FINE, "Delivery failed, rolling back the " + inTransaction +
+                " messages of the transaction");
+        ((AbstractXAResourceType) this.xar).setToRollback(true);
+        try {
+            mTxMgr.getTransactionManager().setRollbackOnly();
+        } catch (Exception e) {
+            _logger.log(Level.SEVERE, "Could not roll back the transaction of " +
+                    inTransaction + " messages : " + e.getMessage());
+        }
+        // End the transaction with this message
+        transactionLimit = inTransaction;
+    }
+    
     public void deliver() {
         int myattempts = 0;
         int attempts = this.spec.getRedeliveryAttempts();
@@ -202,6 +318,12 @@ public class DeliveryHelper {
                 
                 break;
             } catch (Exception e) {
+                if (inTransaction > 1) {
+                    // Other messages have been delivered in this
+                    // transaction, roll them back together.
+                    rollbackTransaction();
+                    return;
+                }
                 if (redeliveryRequired()) {
                     /*
                      * Do not allow roll back here, because we know that
@@ -270,12 +392,46 @@ public class DeliveryHelper {
                         return;
                     }
                 } else {
-                    
+                    if (localTransacted) {
+                        localDeliveryFailed();
+                    }
                     return;
                     
                 }
             }
         }
+        if (localTransacted) {
+            commitSession();
+        }
+    }
+    
+    /**
+     * Commits the locally transacted session after a successful delivery
+     * (LocalTransacted).
+     */
+    private void commitSession() {
+        try {
+            this.jmsResource.getSession().commit();
+            _logger.log(Level.FINE, "Committed the local transaction");
+        } catch (JMSException e) {
+            // The provider rolls back, the message will be redelivered.
+            _logger.log(Level.WARNING, "Commit of the local transaction failed : " +
+                    e.getMessage());
+        }
+    }
+    
+    /**
+     * Rolls back the locally transacted session after a failed delivery,
+     * so that the provider redelivers the message, or moves the message to
+     * the DMD once RedeliveryAttempts is reached (LocalTransacted).
+     */
+    private void localDeliveryFailed() {
+        try {
+            redelivery.deliveryFailed(this.jmsResource.getSession(), this.msg, this.dest);
+        } catch (JMSException e) {
+            _logger.log(Level.WARNING, "Completion of the local transaction failed : " +
+                    e.getMessage());
+        }
     }
     
     public void markForDMD() {
@@ -294,7 +450,8 @@ public class DeliveryHelper {
                     "Now it is feeding the message to MDB instance");
             ((jakarta.jms.MessageListener) endPoint).onMessage(message);
         } catch (Exception e) {
-            if (transacted) {
+            jmsResource.markEndpointFailed();
+            if (transacted || localTransacted) {
                 throw ExceptionUtils.newResourceException(e);
             }
         }
@@ -11,9 +11,12 @@
 package com.sun.genericra.inbound.async;
 
 import com.sun.genericra.GenericJMSRA;
+import com.sun.genericra.ResourceManagerCache;
 import com.sun.genericra.inbound.*;
 import com.sun.genericra.util.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.*;
 
 import jakarta.jms.*;
@@ -24,8 +27,11 @@ import jakarta.resource.spi.endpoint.MessageEndpoint;
 import jakarta.resource.spi.endpoint.MessageEndpointFactory;
 import jakarta.resource.spi.work.WorkManager;
 
+import jakarta.transaction.TransactionManager;
 import javax.transaction.xa.XAResource;
 
+import com.sun.genericra.inbound.sync.TxMgr;
+
 import com.sun.genericra.GenericJMSRA;
 import com.sun.genericra.util.*;
 import com.sun.genericra.monitoring.*;
@@ -33,7 +39,8 @@ import com.sun.genericra.monitoring.*;
  * One <code>EndpointConsumer</code> represents one MDB deployment.
  * Important assumptions:
  *   - Each EndpointCOnsumer holds one InboundJmsResourcePool
- *     (ServerSessionPool) which holds a jakarta.jms.Connection object.
+ *     (ServerSessionPool) per connection (ConnectionCount), each of which
+ *     holds a jakarta.jms.Connection object and its ConnectionConsumer.
  *   - EndpointConsumer is also created when ra.getXAResources() is
  *     is called for transaction recovery.
  * @author Binod P.G
@@ -42,8 +49,8 @@ public class EndpointConsumer extends com.sun.genericra.inbound.AbstractConsumer
     
 
     InboundJmsResourcePool jmsPool = null;
-    private ConnectionConsumer consumer = null;
-    private ReconnectHelper reconHelper = null;
+    private List<InboundJmsResourcePool> pools = new ArrayList<InboundJmsResourcePool>();
+    private ConnectionConsumer[] consumers = null;
 
 
     public EndpointConsumer(MessageEndpointFactory mef,
@@ -60,12 +67,20 @@ public class EndpointConsumer extends com.sun.genericra.inbound.AbstractConsumer
         return jmsPool;
     }
 
+    public List<InboundJmsResourcePool> getPools() {
+        return pools;
+    }
+
     public Connection getConnection() {
         return jmsPool.getConnection();
     }
 
-    public void restart() throws ResourceException {
-        consumer = _start(reconHelper.getPool(), dest);
+    /**
+     * Recreates the ConnectionConsumer of a pool whose connection has
+     * been re-established.
+     */
+    public void restart(InboundJmsResourcePool pool) throws ResourceException {
+        consumers[pool.getStripe()] = _start(pool, dest);
     }
 
     public void start() throws ResourceException {
@@ -74,13 +89,71 @@ public class EndpointConsumer extends com.sun.genericra.inbound.AbstractConsumer
             "Registering a endpoint consumer, transaction support :" +
             this.transacted);
         initialize(this.transacted);
-        consumer = _start(jmsPool, dest);
+        for (InboundJmsResourcePool pool : pools) {
+            consumers[pool.getStripe()] = _start(pool, dest);
+        }
+    }
+
+    /**
+     * TransactionBatchSize applies to XA delivery only, and needs the
+     * TransactionManager to roll back a batch when one of its messages
+     * fails.
+     */
+    private int transactionBatchSize(boolean isTx) {
+        int size = spec.getTransactionBatchSize();
+        if (size <= 1) {
+            return 1;
+        }
+        if (!isTx) {
+            logger.log(Level.WARNING, "TransactionBatchSize " + size + " is ignored, " +
+                "the delivery of the endpoint is not XA transacted");
+            return 1;
+        }
+        TransactionManager mgr = null;
+        try {
+            mgr = new TxMgr().getTransactionManager();
+        } catch (Exception e) {
+            logger.log(Level.FINE, "TxMgr could not be obtained: " + e);
+        }
+        if (mgr == null) {
+            logger.log(Level.WARNING, "TransactionBatchSize " + size + " is ignored, " +
+                "the TransactionManager could not be obtained");
+            return 1;
+        }
+        return size;
     }
 
     public void initialize(boolean isTx) throws ResourceException {
         super.validate();
-        jmsPool = new InboundJmsResourcePool(this, isTx);
-        jmsPool.initialize();
+        int count = getConnectionCount();
+        int txBatchSize = transactionBatchSize(isTx);
+        pools.clear();
+        consumers = new ConnectionConsumer[count];
+        boolean initialized = false;
+        try {
+            for (int i = 0; i < count; i++) {
+                InboundJmsResourcePool pool = new InboundJmsResourcePool(this, isTx, i, count);
+                pool.setTransactionBatchSize(txBatchSize);
+                pools.add(pool);
+                if (i == 0) {
+                    jmsPool = pool;
+                }
+                pool.initialize();
+            }
+            initialized = true;
+        } finally {
+            if (!initialized) {
+                // The connections opened so far are closed
+                for (InboundJmsResourcePool pool : pools) {
+                    release(pool);
+                }
+                pools.clear();
+                jmsPool = null;
+            }
+        }
+        if (count > 1) {
+            logger.log(Level.FINE, "Endpoint consumer uses " + count + " connections");
+        }
     }
 
 
@@ -94,34 +167,46 @@ public class EndpointConsumer extends com.sun.genericra.inbound.AbstractConsumer
             Connection con = pool.getConnection();    
             /*
              * Code for tackling the client id uniqueness requirement
-             * for durable subscriptions
+             * for durable subscriptions. The client id is set on the
+             * first connection only, it has to be unique.
             */ 
            
-            this.setClientId();
-            if (spec.getSubscriptionDurability().equals(Constants.DURABLE)) {
+            if (pool == jmsPool) {
+                this.setClientId();
+            }
+            if (spec.getSharedSubscription()) {
+                    boolean durable = spec.getSubscriptionDurability().equals(Constants.DURABLE);
+                    consmr = pool.createSharedConnectionConsumer(dst,
+                    spec.getSubscriptionName(), spec.getMessageSelector(),
+                    spec.getMaxMessagesPerSession(), durable);
+                    logger.log(Level.FINE, "Created shared " +
+                        (durable ? "durable " : "") + "connection consumer" + dst);
+            } else if (spec.getSubscriptionDurability().equals(Constants.DURABLE)) {
                     String subscription_name = 
                             ((spec.getInstanceCount() > 1) && (spec.getInstanceID() != 0)) ?
                             (spec.getSubscriptionName() + spec.getInstanceID()) :
                             (spec.getSubscriptionName());
                     consmr = pool.createDurableConnectionConsumer(                
-                    dst, subscription_name, spec.getMessageSelector(),1 );
+                    dst, subscription_name, spec.getMessageSelector(),
+                    spec.getMaxMessagesPerSession());
                     logger.log(Level.FINE, "Created durable connection consumer" + dst);               
             } else {
                 consmr = pool.createConnectionConsumer(dst,
-                        spec.getMessageSelector(), 1);
+                        spec.getMessageSelector(), spec.getMaxMessagesPerSession());
                 logger.log(Level.FINE,
                     "Created non durable connection consumer" + dst);
             }
 
+            pool.warmUp();
             con.start();
-            this.reconHelper = new ReconnectHelper(pool, this);
+            ReconnectHelper reconHelper = new ReconnectHelper(pool, this);
 
             if (spec.getReconnectAttempts() > 0) {
                 con.setExceptionListener(reconHelper);
             }
         } catch (JMSException je) {
             // stop();
-            closeConsumer();
+            closeConsumer(consmr);
             throw ExceptionUtils.newResourceException(je);
         }
 
@@ -134,19 +219,27 @@ public class EndpointConsumer extends com.sun.genericra.inbound.AbstractConsumer
         logger.log(Level.FINE, "Now stopping the message consumption");
         this.stopped = true;
 
-        if (jmsPool != null) {
-            try {
-                jmsPool.destroy();
-            } catch (Throwable t) {
-                logger.log(Level.SEVERE, "" + t.getMessage(), t);
-            }
+        for (InboundJmsResourcePool pool : pools) {
+            release(pool);
+        }
+    }
+
+    /**
+     * Destroys the pool and closes its ConnectionConsumer and connection.
+     */
+    private void release(InboundJmsResourcePool pool) {
+        try {
+            pool.destroy();
+        } catch (Throwable t) {
+            logger.log(Level.SEVERE, "" + t.getMessage(), t);
         }
 
-        closeConsumer();
+        closeConsumer(pool);
 
-        Connection con = jmsPool.getConnection();
+        Connection con = pool.getConnection();
 
         if (con != null) {
+            ResourceManagerCache.getInstance().remove(con);
             try {
                 con.close();
             } catch (Throwable t) {
@@ -155,7 +248,17 @@ public class EndpointConsumer extends com.sun.genericra.inbound.AbstractConsumer
         }
     }
 
-    public void closeConsumer() {
+    /**
+     * Closes the ConnectionConsumer created on the connection of the pool.
+     */
+    public void closeConsumer(InboundJmsResourcePool pool) {
+        if (consumers != null) {
+            closeConsumer(consumers[pool.getStripe()]);
+            consumers[pool.getStripe()] = null;
+        }
+    }
+
+    private void closeConsumer(ConnectionConsumer consumer) {
         if (consumer != null) {
             try {
                 consumer.close();
@@ -37,6 +37,10 @@ public class InboundJmsResource extends AbstractJmsResource implements ServerSes
         _logger = LogUtils.getLogger();
     }
     private DeliveryHelper helper;
+    private MessageListener listener;
+    private int generation;
+    private volatile long lastUsed = System.nanoTime();
+    private long busySince;
 
     public InboundJmsResource(Session session, InboundJmsResourcePool pool)
         throws JMSException {
@@ -54,21 +58,26 @@ public class InboundJmsResource extends AbstractJmsResource implements ServerSes
                 "Provider is starting the message consumtion");
 
             Work w = new WorkImpl(this);
-            WorkManager wm = ra.getWorkManager();
-            wm.scheduleWork(w);
+            ra.getExecutor().execute(w);
         } catch (WorkException e) {
             throw ExceptionUtils.newJMSException(e);
         }
     }
 
     /**
-     * Each time a serversession is checked out from the pool, the listener
-     * will be recreated.
+     * Each time a serversession is checked out from the pool, the delivery
+     * state is reset. The listener and the delivery helper (with its
+     * XAResource proxy) are created on the first checkout and live as long
+     * as the session.
      */
     public InboundJmsResource refreshListener() throws JMSException {
-        MessageListener listener = new MessageListener(this,(InboundJmsResourcePool) pool);
-        this.session.setMessageListener(listener);
-          helper = new DeliveryHelper(this, (InboundJmsResourcePool)pool);
+        if (listener == null) {
+            listener = new MessageListener(this,(InboundJmsResourcePool) pool);
+            this.session.setMessageListener(listener);
+            helper = new DeliveryHelper(this, (InboundJmsResourcePool)pool);
+        } else {
+            helper.reset();
+        }
 
         return this;
     }
@@ -93,16 +102,44 @@ public class InboundJmsResource extends AbstractJmsResource implements ServerSes
 
     public InboundJmsResource markAsBusy() {
         this.free = false;
+        this.busySince = System.nanoTime();
 
         return this;
     }
 
     public InboundJmsResource markAsFree() {
         this.free = true;
+        this.lastUsed = System.nanoTime();
 
         return this;
     }
 
+    /**
+     * Identifies the initialization of the pool that created this resource.
+     */
+    public int getGeneration() {
+        return this.generation;
+    }
+
+    public void setGeneration(int generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * Time (System.nanoTime()) at which this resource was last put back
+     * into the pool.
+     */
+    public long getLastUsed() {
+        return this.lastUsed;
+    }
+
+    /**
+     * Time (System.nanoTime()) at which this resource was checked out.
+     */
+    public long getBusySince() {
+        return this.busySince;
+    }
+
     public DeliveryHelper getDeliveryHelper() {
         return this.helper;
     }
@@ -123,9 +160,20 @@ public class InboundJmsResource extends AbstractJmsResource implements ServerSes
     }
 
     /**
-     * Creates the MessageEndpoint and start the delivery.
+     * Creates the MessageEndpoint and start the delivery. An endpoint kept
+     * from the previous run of the session (EndpointReuseCount) is used
+     * instead of creating a new one.
      */
     public void refresh() throws JMSException {
+        if ((this.endPoint != null) && !this.delivering) {
+            if (endpointExpired()) {
+                discardEndpoint();
+            } else {
+                beforeDelivery();
+                return;
+            }
+        }
+
         MessageEndpointFactory mef = pool.getConsumer()
                                          .getMessageEndpointFactory();
 
@@ -133,7 +181,10 @@ public class InboundJmsResource extends AbstractJmsResource implements ServerSes
             _logger.log(Level.FINER, "Creating message endpoint : " +
                 xaresource);
             endPoint = mef.createEndpoint(helper.getXAResource());
+            endpointCreated();
             endPoint.beforeDelivery(this.ra.getListeningMethod());
+            delivering = true;
+            endpointUses++;
             _logger.log(Level.FINE, "Created endpoint : ");
         } catch (Exception e) {
             _logger.log(Level.SEVERE, "Refresh resource failed");
@@ -142,12 +193,75 @@ public class InboundJmsResource extends AbstractJmsResource implements ServerSes
         }
     }
 
+    /**
+     * Prepares the MessageEndpoint for the delivery of the next message
+     * loaded into the session. A new endpoint is created if the current
+     * one cannot be used.
+     */
+    public void beforeDelivery() throws JMSException {
+        if (this.endPoint != null) {
+            try {
+                this.endPoint.beforeDelivery(this.ra.getListeningMethod());
+                delivering = true;
+                endpointUses++;
+                return;
+            } catch (Exception e) {
+                _logger.log(Level.FINE, "Before delivery failed, recreating the endpoint "
+                    + e.getMessage());
+                discardEndpoint();
+            }
+        }
+        refresh();
+    }
+
+    /**
+     * Completes the delivery of one message, without releasing the
+     * MessageEndpoint.
+     */
+    public void afterDelivery() {
+        if ((this.endPoint == null) || !this.delivering) {
+            return;
+        }
+        try {
+            delivering = false;
+            this.endPoint.afterDelivery();
+        } catch (Exception re) {
+            _logger.log(Level.SEVERE, "After delivery failed " + re.getMessage(), re);
+            discardEndpoint();
+        }
+    }
+
+    /**
+     * Completes the delivery of the last message of the session run. The
+     * endpoint is kept for the next run if it may be reused, otherwise it
+     * is released.
+     */
+    public void completeDelivery() {
+        if (canReuseEndpoint()) {
+            afterDelivery();
+        } else {
+            releaseEndpoint();
+        }
+    }
+
+    private void discardEndpoint() {
+        try {
+            this.endPoint.release();
+        } catch (Exception e) {
+            _logger.log(Level.SEVERE,
+                "InboundJMSResource: release endpoint failed ");
+        }
+        this.endPoint = null;
+        this.delivering = false;
+    }
+
     /**
      * Completes the Message delivery and release the MessageEndpoint.
      */
     public void releaseEndpoint() {
         try {
-            if (this.endPoint != null) {
+            if ((this.endPoint != null) && this.delivering) {
+                this.delivering = false;
                 this.endPoint.afterDelivery();
             }
         } catch (Exception re) {
@@ -15,12 +15,23 @@ import com.sun.genericra.inbound.*;
 import com.sun.genericra.util.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jakarta.jms.*;
 import jakarta.resource.spi.*;
 import jakarta.resource.spi.endpoint.*;
+import jakarta.resource.spi.work.Work;
+import jakarta.resource.spi.work.WorkException;
+import jakarta.resource.spi.work.WorkManager;
 import jakarta.resource.ResourceException;
 import javax.transaction.xa.XAResource;
 
@@ -36,19 +47,69 @@ public class InboundJmsResourcePool extends AbstractJmsResourcePool implements S
         _logger = LogUtils.getLogger();
     }
 
-    private boolean deploymentCompleted = false;
-    private ArrayList resources;
+    private volatile boolean deploymentCompleted = false;
+    private volatile DeploymentGate deploymentGate = new DeploymentGate();
+    private volatile long deploymentWaitStart = 0;
+    private volatile long deploymentWaitTime = -1;
+    private List<InboundJmsResource> resources;
+    private ConcurrentLinkedDeque<InboundJmsResource> freeResources;
+    private AtomicInteger resourceCount = new AtomicInteger(0);
+    private AtomicInteger freeCount = new AtomicInteger(0);
+    private AtomicInteger connectionsInUse = new AtomicInteger(0);
+    private AtomicInteger waiting = new AtomicInteger(0);
+    private volatile int generation = 0;
     private int maxSize;
-    private int connectionsInUse = 0;
     private long maxWaitTime;
-    private SortedSet<WaitQueueEntry> waitQueue = null;
+    private ConcurrentLinkedQueue<WaitQueueEntry> waitQueue = null;
+    private AtomicLong totalWaits = new AtomicLong(0);
+    private AtomicLong totalWaitTime = new AtomicLong(0);
+    private AtomicLong maxObservedWaitTime = new AtomicLong(0);
+    private AtomicLong waitTimeouts = new AtomicLong(0);
+    private int minSize;
+    private AtomicInteger warmUpWorkers = new AtomicInteger(0);
+    private volatile long warmUpStart = 0;
+    private volatile long warmUpTime = -1;
+    private static final int WARMUP_PARALLELISM = 8;
+    private long idleTimeout;
+    private TimerTask evictionTask = null;
+    private AtomicLong evictions = new AtomicLong(0);
+    private long lastTotalWaits = 0;
+    private int highWaterMark;
+    private int lowWaterMark;
+    private volatile boolean pauseRequested = false;
+    /* Read without the lock by getBackpressureTime() */
+    private volatile boolean paused = false;
+    private volatile long pausedSince = 0;
+    private Object backpressureLock = new Object();
+    /* A work is stopping or starting the connection */
+    private boolean applyingBackpressure = false;
+    private AtomicLong pauses = new AtomicLong(0);
+    private AtomicLong pausedTime = new AtomicLong(0);
+    private int transactionBatchSize = 1;
     private long TIME_OUT = 180 * 1000;
     private StringManager sm = StringManager.getManager(GenericJMSRA.class);
 
 
     public InboundJmsResourcePool(EndpointConsumer consumer, boolean transacted) {
-        super(consumer, transacted);
-        this.waitQueue = new TreeSet<WaitQueueEntry>();
+        this(consumer, transacted, 0, 1);
+    }
+
+    public InboundJmsResourcePool(EndpointConsumer consumer, boolean transacted,
+            int stripe, int stripes) {
+        super(consumer, transacted, stripe, stripes);
+        this.waitQueue = new ConcurrentLinkedQueue<WaitQueueEntry>();
+    }
+
+    /**
+     * Maximum number of messages delivered in one transaction, see
+     * DeliveryHelper.
+     */
+    public int getTransactionBatchSize() {
+        return this.transactionBatchSize;
+    }
+
+    public void setTransactionBatchSize(int size) {
+        this.transactionBatchSize = Math.max(1, size);
     }
 
     public int getMaxSize() {
@@ -68,43 +129,70 @@ public class InboundJmsResourcePool extends AbstractJmsResourcePool implements S
     }
 
     public int getBusyResources() {
-        int busy = 0;
-        if (resources != null) {
-            Iterator it = resources.iterator();
-            while (it.hasNext()) {
-                InboundJmsResource resource = (InboundJmsResource) it.next();
-                if (!resource.isFree()) {
-                    busy++;
-                }
-            }
-        }
-        return busy;
+        return this.connectionsInUse.get();
     }
     
     public int getFreeResources() {
-        int free = 0;
-        if (resources != null) {
-            Iterator it = resources.iterator();
-            while (it.hasNext()) {
-                InboundJmsResource resource = (InboundJmsResource) it.next();
-                if (resource.isFree()) {
-                    free++;
-                }
-            }
-        }
-        return free;
+        return this.freeCount.get();
     }
 
     public int getConnectionsInUse() {
-        return this.connectionsInUse;
+        return this.connectionsInUse.get();
     }
 
     public int getWaiting() {
-        int wait = 0;
-        if (this.waitQueue != null) {
-            wait = this.waitQueue.size();
+        return this.waiting.get();
+    }
+
+    public long getTotalWaits() {
+        return this.totalWaits.get();
+    }
+
+    public long getAverageWaitTime() {
+        long waits = this.totalWaits.get();
+        if (waits == 0) {
+            return 0;
         }
-        return wait;
+        return TimeUnit.NANOSECONDS.toMillis(this.totalWaitTime.get() / waits);
+    }
+
+    public long getMaxObservedWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.maxObservedWaitTime.get());
+    }
+
+    public long getWaitTimeouts() {
+        return this.waitTimeouts.get();
+    }
+
+    public int getMinSize() {
+        return this.minSize;
+    }
+
+    public long getWarmUpTime() {
+        return this.warmUpTime;
+    }
+
+    public long getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    public long getEvictedResources() {
+        return this.evictions.get();
+    }
+
+    public long getBackpressurePauses() {
+        return this.pauses.get();
+    }
+
+    public long getBackpressureTime() {
+        long time = this.pausedTime.get();
+        // pausedSince is set before paused, and paused cleared before the
+        // pause is added to pausedTime: a resume in progress is missed at
+        // worst, never counted twice.
+        if (paused) {
+            time += System.nanoTime() - pausedSince;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(time);
     }
 
     public ConnectionConsumer createConnectionConsumer(Destination dest, String name,
@@ -137,13 +225,43 @@ public class InboundJmsResourcePool extends AbstractJmsResourcePool implements S
         return conconsumer;
     }
 
+    /**
+     * Creates a ConnectionConsumer on a shared (durable or non-durable)
+     * subscription.
+     */
+    public ConnectionConsumer createSharedConnectionConsumer(Destination dest, String name,
+            String sel, int maxMessages, boolean durable) throws JMSException {
+        Connection con = getConnection();
+        if (durable) {
+            return con.createSharedDurableConnectionConsumer((Topic) dest, name, sel,
+                    this, maxMessages);
+        }
+        return con.createSharedConnectionConsumer((Topic) dest, name, sel, this,
+                maxMessages);
+    }
+
     public synchronized void initialize() throws ResourceException {
         _logger.log(Level.FINER, "Initializing the ServerSession resource pool...");
 
         try {
-            resources = new ArrayList();
-            this.maxSize = consumer.getSpec().getMaxPoolSize();
+            resources = new CopyOnWriteArrayList<InboundJmsResource>();
+            freeResources = new ConcurrentLinkedDeque<InboundJmsResource>();
+            resourceCount.set(0);
+            freeCount.set(0);
+            connectionsInUse.set(0);
+            generation++;
+            this.maxSize = Math.max(1, stripeShare(consumer.getSpec().getMaxPoolSize()));
+            this.minSize = stripeShare(consumer.getSpec().getMinPoolSize());
+            this.warmUpTime = -1;
+            this.idleTimeout = consumer.getSpec().getIdleTimeout() * 1000L;
             this.maxWaitTime = consumer.getSpec().getMaxWaitTime() * 1000;
+            this.highWaterMark = consumer.getSpec().getBackpressureHighWaterMark();
+            this.lowWaterMark = consumer.getSpec().getBackpressureLowWaterMark();
+            synchronized (backpressureLock) {
+                // A new connection starts out delivering.
+                this.pauseRequested = false;
+                this.paused = false;
+            }
             if (consumer.getSpec().getSupportsXA()) {
                 XAConnectionFactory xacf = (XAConnectionFactory) consumer.getConnectionFactory();
                 this.con = createXAConnection(xacf);
@@ -164,7 +282,12 @@ public class InboundJmsResourcePool extends AbstractJmsResourcePool implements S
                 this.con = createConnection(cf);
             }
 
+            startConcurrencyControl(minSize, maxSize);
             stopped = false;
+            startEviction();
+            if (!deploymentCompleted && (consumer.getMessageEndpointFactory() != null)) {
+                startDeploymentProbe();
+            }
         } catch (JMSException e) {
             throw ExceptionUtils.newResourceException(e);
         }
@@ -172,6 +295,149 @@ public class InboundJmsResourcePool extends AbstractJmsResourcePool implements S
         _logger.log(Level.FINE, "ServerSession resource pool initialized");
     }
 
+    /**
+     * Pre-creates MinPoolSize ServerSessions in the background, so that the
+     * first messages after activation (or reconnect) do not pay for session
+     * creation. Has to be called after the client ID of the connection has
+     * been set, since creating a session is an action on the connection.
+     */
+    public void warmUp() {
+        int target = Math.min(this.minSize, this.maxSize);
+        if (target <= 0) {
+            return;
+        }
+
+        int workers = Math.min(target, WARMUP_PARALLELISM);
+        _logger.log(Level.FINE, "Pre-creating " + target + " ServerSessions using "
+            + workers + " workers");
+        warmUpStart = System.nanoTime();
+        warmUpWorkers.set(workers);
+
+        WorkManager wm = ((GenericJMSRA) consumer.getResourceAdapter()).getWorkManager();
+        for (int i = 0; i < workers; i++) {
+            Work w = new WarmUpWork(target, generation);
+            try {
+                wm.scheduleWork(w);
+            } catch (WorkException we) {
+                _logger.log(Level.WARNING, "Could not schedule ServerSession warm-up: "
+                    + we.getMessage());
+                warmUpFinished();
+            }
+        }
+    }
+
+    /**
+     * Creates idle ServerSessions until the pool holds at least target
+     * resources. Returns false if no more resources need to be created.
+     */
+    private boolean createIdleResource(int target, int gen) throws JMSException {
+        int size;
+        do {
+            size = resourceCount.get();
+            if (stopped || (gen != generation) || (size >= target)) {
+                return false;
+            }
+        } while (!resourceCount.compareAndSet(size, size + 1));
+
+        boolean created = false;
+        try {
+            InboundJmsResource res = create();
+            resources.add(res);
+            created = true;
+
+            // Pass the new resource through put(), so that it is handed to
+            // a waiting provider thread if there is one.
+            connectionsInUse.incrementAndGet();
+            putBack(res.markAsBusy());
+        } finally {
+            if (!created) {
+                resourceCount.decrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    private void warmUpFinished() {
+        if (warmUpWorkers.decrementAndGet() == 0) {
+            warmUpTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - warmUpStart);
+            _logger.log(Level.INFO, "ServerSession pool pre-warmed with " +
+                getCurrentResources() + " sessions in " + warmUpTime + " ms");
+        }
+    }
+
+    /**
+     * Schedules the periodic eviction of idle ServerSessions, if an
+     * IdleTimeout has been configured.
+     */
+    private synchronized void startEviction() {
+        if ((idleTimeout <= 0) || (evictionTask != null)) {
+            return;
+        }
+        try {
+            Timer timer = ((GenericJMSRA) consumer.getResourceAdapter()).getTimer();
+            long period = Math.max(1000, idleTimeout / 2);
+            evictionTask = new TimerTask() {
+                public void run() {
+                    evictIdleResources();
+                }
+            };
+            timer.schedule(evictionTask, period, period);
+            _logger.log(Level.FINE, "Scheduled idle ServerSession eviction every " + period + " ms");
+        } catch (Exception e) {
+            evictionTask = null;
+            _logger.log(Level.WARNING, "Idle ServerSession eviction is disabled: " + e.getMessage());
+        }
+    }
+
+    private synchronized void stopEviction() {
+        if (evictionTask != null) {
+            evictionTask.cancel();
+            evictionTask = null;
+        }
+    }
+
+    /**
+     * Closes ServerSessions that have not been used for IdleTimeout, but
+     * never shrinks the pool below MinPoolSize. Sessions are reused from the
+     * head of the free-list, so the idle ones collect at its tail. This runs
+     * on the timer thread and never takes the pool monitor.
+     */
+    void evictIdleResources() {
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        int evicted = 0;
+
+        while (!stopped) {
+            InboundJmsResource resource = freeResources.peekLast();
+            if ((resource == null) || (now - resource.getLastUsed() < timeout)) {
+                break;
+            }
+
+            int size = resourceCount.get();
+            if (size <= minSize) {
+                break;
+            }
+            if (!freeResources.removeLastOccurrence(resource)) {
+                // Checked out by a provider thread in the meantime.
+                continue;
+            }
+            if (!resourceCount.compareAndSet(size, size - 1)) {
+                freeResources.offerLast(resource);
+                continue;
+            }
+
+            freeCount.decrementAndGet();
+            resources.remove(resource);
+            resource.destroy();
+            evictions.incrementAndGet();
+            evicted++;
+        }
+
+        if (evicted > 0) {
+            _logger.log(Level.FINE, "Closed " + evicted + " idle ServerSessions");
+        }
+    }
+
     public InboundJmsResource create() throws JMSException {
         _logger.log(Level.FINER, "Creating the ServerSession");
 
@@ -183,65 +449,120 @@ public class InboundJmsResourcePool extends AbstractJmsResourcePool implements S
             xar = getXAResource((XASession) sess);
             _logger.log(Level.FINE, "Created new XA ServerSession");
         } else {
-            sess = createSession(con);
+            sess = createSession(con, localTransacted);
             _logger.log(Level.FINE, "Created new ServerSession");
         }
 
-        return new InboundJmsResource(sess, this, xar);
+        InboundJmsResource resource = new InboundJmsResource(sess, this, xar);
+        resource.setGeneration(generation);
+        return resource;
     }
 
     public ServerSession getServerSession() throws JMSException {
+        validate();
+        InboundJmsResource result = _getServerSession();
+
+        if (result == null) {
+            // A resource handed off by put() is still marked busy from its
+            // previous use.
+            result = waitForServerSession().markAsBusy();
+        }
+
+        checkHighWaterMark();
+        return result.refreshListener();
+    }
+
+    /**
+     * Slow path of getServerSession(). The provider thread is queued in FIFO
+     * order and parks until a released ServerSession is handed to it by
+     * put(), or until MaxWaitTime expires.
+     */
+    private InboundJmsResource waitForServerSession() throws JMSException {
         InboundJmsResource result = null;
-        WaitQueueEntry waitQueueEntry = null;
-        long startTime = System.currentTimeMillis();
-        long elapsedWaitTime = 0;
-        long remainingWaitTime = maxWaitTime;
+        long startTime = System.nanoTime();
+        // stop() resets maxWaitTime, read it once
+        long waitTime = maxWaitTime;
+        long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(waitTime);
 
-        while (true) {
-            synchronized (this) {
+        waiting.incrementAndGet();
+        try {
+            while (result == null) {
                 validate();
-                result = _getServerSession();
+                if (stopped) {
+                    // Released by stop(), nothing will be handed out anymore.
+                    String msg = sm.getString("serversession_pool_stopped");
+                    throw new JMSException(msg);
+                }
 
+                WaitQueueEntry waitQueueEntry = new WaitQueueEntry();
+                waitQueue.offer(waitQueueEntry);
+
+                // Check the free list again after registering, so that a
+                // put() that raced with this thread is not missed.
+                result = _getServerSession();
                 if (result != null) {
-                    if (waitQueueEntry != null) {
-                        waitQueue.remove(waitQueueEntry);
+                    InboundJmsResource handedOff = cancel(waitQueueEntry);
+                    if (handedOff != null) {
+                        putBack(handedOff);
                     }
                     break;
                 }
+                if (stopped) {
+                    // stop() may have released the queue before the entry
+                    // was added.
+                    result = cancel(waitQueueEntry);
+                    continue;
+                }
 
-                elapsedWaitTime = System.currentTimeMillis() - startTime;
-                if (maxWaitTime > 0) {
-                    if (elapsedWaitTime >= maxWaitTime) {
-                        _logger.log(Level.WARNING, "MaxWaitTime exceeded without acquiring a ServerSession");
-                        if (waitQueueEntry != null) {
-                            waitQueue.remove(waitQueueEntry);
+                long remainingWaitTime = 0;
+                if (waitTime > 0) {
+                    remainingWaitTime = deadline - System.nanoTime();
+                    if (remainingWaitTime <= 0) {
+                        result = cancel(waitQueueEntry);
+                        if (result != null) {
+                            break;
                         }
+                        waitTimeouts.incrementAndGet();
+                        _logger.log(Level.WARNING, "MaxWaitTime exceeded without acquiring a ServerSession");
                         String msg = sm.getString("pool_limit_reached");
                         throw new JMSException(msg);
                     }
-                    remainingWaitTime = maxWaitTime - elapsedWaitTime;
                 }
 
-                if (waitQueueEntry == null) {
-                    waitQueueEntry = new WaitQueueEntry(startTime);
-                }
-                waitQueue.add(waitQueueEntry);
-                waitQueueEntry.setNotified(false);
+                _logger.log(Level.FINE, "Waiting for :" +
+                    TimeUnit.NANOSECONDS.toMillis(remainingWaitTime));
+                waitQueueEntry.await(remainingWaitTime);
+                result = cancel(waitQueueEntry);
             }
+        } finally {
+            waiting.decrementAndGet();
+            recordWait(System.nanoTime() - startTime);
+        }
 
-            synchronized (waitQueueEntry) {
-                if (!waitQueueEntry.isNotified()) {
-                    try {
-                        _logger.log(Level.FINE, "Waiting for :" + remainingWaitTime);
-                         waitQueueEntry.wait(remainingWaitTime);
-                    } catch (InterruptedException ie) {
-                        // ignore
-                    }
-                }
-            }
+        return result;
+    }
+
+    /**
+     * Withdraws a wait queue entry. If a ServerSession was handed to the
+     * entry before it could be withdrawn, that ServerSession is returned.
+     */
+    private InboundJmsResource cancel(WaitQueueEntry waitQueueEntry) {
+        if (waitQueueEntry.cancel()) {
+            waitQueue.remove(waitQueueEntry);
+            return null;
         }
+        return waitQueueEntry.getResource();
+    }
 
-        return result.refreshListener();
+    private void recordWait(long waitTime) {
+        totalWaits.incrementAndGet();
+        totalWaitTime.addAndGet(waitTime);
+        long max;
+        while (waitTime > (max = maxObservedWaitTime.get())) {
+            if (maxObservedWaitTime.compareAndSet(max, waitTime)) {
+                break;
+            }
+        }
     }
 
     public void validate() throws JMSException {
@@ -251,107 +572,432 @@ public class InboundJmsResourcePool extends AbstractJmsResourcePool implements S
         }
         if (deploymentCompleted)
             return;
+        awaitDeployment();
+    }
+
+    /**
+     * Waits until the background prober has found out whether the MDB
+     * has been deployed. No lock is held while waiting, so put() and the
+     * other provider threads are not blocked.
+     */
+    private void awaitDeployment() throws JMSException {
+        DeploymentGate gate = startDeploymentProbe();
         int retry = this.getConsumer().getSpec().getMDBDeploymentRetryAttempt();
         long retryInterval = this.getConsumer().getSpec().
                                           getMDBDeploymentRetryInterval();
-        boolean failed = false;
-        MessageEndpoint endPoint = null;
-        while(retry > 0) {
-           failed = false;
+        boolean completed = false;
+        try {
+            completed = gate.latch.await((retry + 1) * retryInterval,
+                TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (destroyed) {
+            String msg = sm.getString("serversession_pool_destroyed");
+            throw new JMSException (msg);
+        }
+        if (!completed || gate.failed) {
+           _logger.log(Level.FINER, "Application not yet deployed or" +
+             " deployment failed.\n Use properties MDBDeploymentRetryAttempt" +
+              " & MDBDeploymentRetryInterval for tuning MDB deployment");
+           throw new JMSException(
+                       "Application not yet deployed or deployment failed.");
+        }
+    }
+
+    /**
+     * Starts probing for the deployment of the MDB, unless a probe is
+     * already running. Returns the gate that is opened by the probe.
+     */
+    private DeploymentGate startDeploymentProbe() {
+        DeploymentGate gate = this.deploymentGate;
+        if (!gate.started.compareAndSet(false, true)) {
+            return gate;
+        }
+        if (deploymentWaitStart == 0) {
+            deploymentWaitStart = System.nanoTime();
+        }
+
+        Work probe = new DeploymentProbe(gate);
+        try {
+            ((GenericJMSRA) consumer.getResourceAdapter()).getWorkManager().scheduleWork(probe);
+        } catch (Exception e) {
+            _logger.log(Level.FINE, "Cannot schedule the deployment probe, probing inline");
+            probe.run();
+        }
+        return gate;
+    }
+
+    /**
+     * Creates a dummy endpoint every MDBDeploymentRetryInterval, up to
+     * MDBDeploymentRetryAttempt times, until the MDB deployment is
+     * completed. The deployment is only completed once an endpoint could
+     * be created; any failure is retried.
+     */
+    private void probeDeployment(DeploymentGate gate) {
+        int retry = this.getConsumer().getSpec().getMDBDeploymentRetryAttempt();
+        long retryInterval = this.getConsumer().getSpec().
+                                          getMDBDeploymentRetryInterval();
+        boolean failed = (retry > 0);
+        while ((retry > 0) && !destroyed) {
            retry--;
+           MessageEndpoint endPoint = null;
            try {
                //create dummy end point to check if mdb deployment is
                //completed or some error occurred.
                Thread.sleep(retryInterval);
                MessageEndpointFactory mef = getConsumer().getMessageEndpointFactory();
                endPoint = mef.createEndpoint(null);
-               deploymentCompleted = true;
+               failed = false;
                break;
            } catch (UnavailableException ue) {
-                   failed = true;
+               _logger.log(Level.FINEST, "MDB not deployed yet : " + ue.getMessage());
+           } catch (InterruptedException ie) {
+               Thread.currentThread().interrupt();
+               break;
            } catch (Throwable t) {
-                   //throwable may not be thrown but as safeguard I added this
-                   //since I am passing null object for createEndpoint.
-           }
-           if (destroyed) {
-                String msg = sm.getString("serversession_pool_destroyed");
-                throw new JMSException (msg);
+               //throwable may not be thrown but as safeguard I added this
+               //since I am passing null object for createEndpoint.
+               _logger.log(Level.FINE, "MDB deployment probe failed : " + t.getMessage(), t);
+           } finally {
+               try {
+                   if (endPoint != null)
+                       endPoint.release();
+               } catch( Exception e) {
+                   //ignore
+               }
            }
-       }
-       try {
-           if (endPoint != null)
-               endPoint.release();
-
-       } catch( Exception e) {
-           //ignore
-       }
-       if (failed) {
-           _logger.log(Level.FINER, "Application not yet deployed or" +
-             " deployment failed.\n Use properties MDBDeploymentRetryAttempt" +
-              " & MDBDeploymentRetryInterval for tuning MDB deployment");
-           throw new JMSException(
-                       "Application not yet deployed or deployment failed.");
-       }
+        }
+
+        if (failed) {
+            // Let the next provider thread start a new probe.
+            this.deploymentGate = new DeploymentGate();
+        } else {
+            deploymentWaitTime = TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - deploymentWaitStart);
+            deploymentCompleted = true;
+            _logger.log(Level.FINE, "MDB deployment completed after " +
+                deploymentWaitTime + " ms");
+        }
+        gate.open(failed);
+    }
+
+    public long getDeploymentWaitTime() {
+        return this.deploymentWaitTime;
     }
 
+    /**
+     * Lock-free checkout of a ServerSession. A slot below the concurrency
+     * limit is reserved on the in-use counter first; idle resources are then
+     * taken from the head of the free-list, and a new resource is created
+     * only when a slot below MaxPoolSize could be reserved on the resource
+     * counter.
+     */
     private InboundJmsResource _getServerSession()
         throws JMSException {
         _logger.log(Level.FINER, "JMS provider is getting the ServerSession");
 
-        if (stopped) {
+        if (stopped || !reserveConnection()) {
             return null;
         }
 
-        Iterator it = resources.iterator();
+        InboundJmsResource resource = freeResources.pollFirst();
 
-        while (it.hasNext()) {
-            InboundJmsResource resource = (InboundJmsResource) it.next();
+        if (resource != null) {
+            freeCount.decrementAndGet();
 
-            if (resource.isFree()) {
-                connectionsInUse++;
+            return resource.markAsBusy();
+        }
 
-                return resource.markAsBusy();
+        boolean created = false;
+        try {
+            int size;
+            while ((size = resourceCount.get()) < this.maxSize) {
+                if (resourceCount.compareAndSet(size, size + 1)) {
+                    try {
+                        InboundJmsResource res = create();
+                        resources.add(res);
+                        created = true;
+
+                        return res.markAsBusy();
+                    } finally {
+                        if (!created) {
+                            resourceCount.decrementAndGet();
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (!created) {
+                releaseConnection();
             }
         }
 
-        if (resources.size() < this.maxSize) {
-            InboundJmsResource res = create();
-            resources.add(res);
-            connectionsInUse++;
+        return null;
+    }
 
-            return res.markAsBusy();
+    /**
+     * Takes an idle ServerSession from the free-list, if the concurrency
+     * limit allows it.
+     */
+    private InboundJmsResource takeFree() {
+        if (!reserveConnection()) {
+            return null;
         }
+        InboundJmsResource resource = freeResources.pollFirst();
+        if (resource == null) {
+            releaseConnection();
+            return null;
+        }
+        freeCount.decrementAndGet();
+        return resource.markAsBusy();
+    }
 
-        return null;
+    private boolean reserveConnection() {
+        int limit = getConcurrencyLimit();
+        int inUse;
+        do {
+            inUse = connectionsInUse.get();
+            if (inUse >= limit) {
+                return false;
+            }
+        } while (!connectionsInUse.compareAndSet(inUse, inUse + 1));
+        return true;
+    }
+
+    /**
+     * Gives back a slot reserved by reserveConnection(). This is the only
+     * place where the number of busy ServerSessions drops, so a paused
+     * connection is resumed from here.
+     */
+    private int releaseConnection() {
+        int inUse = connectionsInUse.decrementAndGet();
+        checkLowWaterMark(inUse);
+        return inUse;
     }
 
-    public synchronized void put(InboundJmsResource resource) {
-        resource.markAsFree();
-        connectionsInUse--;
-        _logger.log(Level.FINEST, "Connections remaining in use: " + connectionsInUse);
+    public void put(InboundJmsResource resource) {
+        deliveryCompleted(System.nanoTime() - resource.getBusySince());
+        putBack(resource);
+    }
 
-        if (stopped) {
-            if (connectionsInUse <= 0) {
-                notify();
+    private void putBack(InboundJmsResource resource) {
+        if (resource.getGeneration() != generation) {
+            // Resource belongs to a pool instance that has been reinitialized
+            // (eg: after reconnect); its session has already been closed.
+            _logger.log(Level.FINE, "Discarding ServerSession of a stale pool");
+            return;
+        }
+
+        while (resource != null) {
+            if (!stopped && (connectionsInUse.get() <= getConcurrencyLimit())
+                && handOff(resource)) {
+                // Still busy, but the concurrency limit may have been
+                // raised since the connection was paused.
+                checkLowWaterMark(connectionsInUse.get());
+                return;
+            }
+
+            resource.markAsFree();
+            // Counted before it can be polled, so freeCount never drops below
+            // the number of resources on the free-list.
+            freeCount.incrementAndGet();
+            freeResources.offerFirst(resource);
+            int inUse = releaseConnection();
+            _logger.log(Level.FINEST, "Connections remaining in use: " + inUse);
+
+            if (stopped) {
+                if (inUse <= 0) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+                return;
+            }
+
+            // A waiter may have queued itself after handOff() found the queue
+            // empty but before the resource reached the free list.
+            resource = null;
+            if (!waitQueue.isEmpty()) {
+                resource = takeFree();
+            }
+        }
+    }
+
+    /**
+     * Requests the connection to be paused once the number of busy
+     * ServerSessions reaches the high-water mark.
+     */
+    private void checkHighWaterMark() {
+        if ((highWaterMark <= 0) || pauseRequested) {
+            return;
+        }
+        int limit = getConcurrencyLimit();
+        int high = Math.max(1, (limit * highWaterMark + 99) / 100);
+        if (connectionsInUse.get() >= high) {
+            pauseRequested = true;
+            scheduleBackpressure();
+        }
+    }
+
+    /**
+     * Requests a paused connection to be resumed once the number of busy
+     * ServerSessions dropped to the low-water mark. The thread that paused
+     * the connection holds a ServerSession, so this is always reached
+     * after a pause.
+     */
+    private void checkLowWaterMark(int inUse) {
+        if (!pauseRequested) {
+            return;
+        }
+        int low = (getConcurrencyLimit() * lowWaterMark) / 100;
+        if (inUse <= low) {
+            pauseRequested = false;
+            scheduleBackpressure();
+        }
+    }
+
+    /**
+     * Connection.stop() waits for the message listeners in progress and
+     * must not be called from a provider thread, so the connection is
+     * paused and resumed by a separate work.
+     */
+    private void scheduleBackpressure() {
+        try {
+            ((GenericJMSRA) consumer.getResourceAdapter()).getWorkManager().scheduleWork(
+                new BackpressureWork());
+        } catch (WorkException we) {
+            _logger.log(Level.WARNING, "Could not schedule backpressure work: "
+                + we.getMessage());
+        }
+    }
+
+    /**
+     * Stops or starts the connection until it is in the state requested
+     * last by the provider threads. One work at a time does it, the
+     * connection being stopped or started outside backpressureLock; a work
+     * scheduled meanwhile leaves the new request to the running one.
+     */
+    private void applyBackpressure() {
+        synchronized (backpressureLock) {
+            if (applyingBackpressure) {
+                return;
+            }
+            applyingBackpressure = true;
+        }
+        boolean applying = true;
+        try {
+            while (true) {
+                boolean pause;
+                synchronized (backpressureLock) {
+                    if (stopped || (paused == pauseRequested)) {
+                        applyingBackpressure = false;
+                        applying = false;
+                        break;
+                    }
+                    pause = pauseRequested;
+                }
+                try {
+                    if (pause) {
+                        con.stop();
+                        pausedSince = System.nanoTime();
+                        paused = true;
+                        pauses.incrementAndGet();
+                        _logger.log(Level.FINE, "Paused message delivery, " +
+                            connectionsInUse.get() + " ServerSessions busy");
+                    } else {
+                        con.start();
+                        paused = false;
+                        pausedTime.addAndGet(System.nanoTime() - pausedSince);
+                        _logger.log(Level.FINE, "Resumed message delivery, " +
+                            connectionsInUse.get() + " ServerSessions busy");
+                    }
+                } catch (JMSException e) {
+                    _logger.log(Level.WARNING, "Could not " + (pause ? "pause" : "resume") +
+                        " message delivery: " + e.getMessage());
+                    break;
+                }
+            }
+        } finally {
+            if (applying) {
+                synchronized (backpressureLock) {
+                    applyingBackpressure = false;
+                }
+            }
+        }
+    }
+
+    protected boolean hasPendingDemand() {
+        long waits = totalWaits.get();
+        // A paused connection leaves the backlog on the broker.
+        boolean demand = (waiting.get() > 0) || (waits != lastTotalWaits) || pauseRequested;
+        lastTotalWaits = waits;
+        return demand;
+    }
+
+    /**
+     * Serves the waiting provider threads when the concurrency limit has
+     * been raised.
+     */
+    protected void concurrencyLimitChanged(int oldLimit, int newLimit) {
+        for (int i = oldLimit; (i < newLimit) && !waitQueue.isEmpty(); i++) {
+            try {
+                InboundJmsResource resource = _getServerSession();
+                if (resource == null) {
+                    break;
+                }
+                putBack(resource);
+            } catch (JMSException e) {
+                _logger.log(Level.FINE, e.getMessage(), e);
+                break;
             }
-        } else {
-            resumeWaitingThread();
         }
     }
 
+    /**
+     * Hands a checked out ServerSession directly to the oldest waiting
+     * provider thread. The resource stays busy and is not put on the
+     * free-list.
+     */
+    private boolean handOff(InboundJmsResource resource) {
+        WaitQueueEntry waitQueueEntry;
+        while ((waitQueueEntry = waitQueue.poll()) != null) {
+            if (waitQueueEntry.fulfill(resource)) {
+                _logger.log(Level.FINE, "Handed the ServerSession to a waiting thread");
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Stops message delivery. Any message that is currently being delivered
      * will not be affected. It can be resumed later.
+     *
+     * The pool is drained: no more ServerSessions are handed out, the
+     * deliveries in progress get up to EndpointReleaseTimeout to complete,
+     * and the sessions are then closed in parallel.
      */
     public void stop() throws JMSException {
         _logger.log(Level.FINER, "Stopping the ServerSession resource pool...");
+        long start = System.nanoTime();
+        stopEviction();
+        stopConcurrencyControl();
         synchronized (this) {
             this.stopped = true;
             this.maxWaitTime = 0;
             releaseAllWaitingThreads();
             waitForAll();
         }
+        abandonedDeliveries = Math.max(0, connectionsInUse.get());
         releaseAllResources();
+        drainTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (abandonedDeliveries > 0) {
+            _logger.log(Level.WARNING, "ServerSession pool drained in " + drainTime +
+                " ms, " + abandonedDeliveries + " deliveries still in progress were abandoned");
+        } else {
+            _logger.log(Level.FINE, "ServerSession pool drained in " + drainTime + " ms");
+        }
 
         if (dmdCon != null) {
             this.dmdCon.close();
@@ -370,83 +1016,178 @@ public class InboundJmsResourcePool extends AbstractJmsResourcePool implements S
     }
 
     public synchronized void waitForAll() {
-        if (connectionsInUse > 0) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(
+            this.consumer.getSpec().getEndpointReleaseTimeout());
+        if (connectionsInUse.get() > 0) {
             _logger.log(Level.FINE,
-                "Waiting for " + connectionsInUse + " ServerSessions" +
+                "Waiting for " + connectionsInUse.get() + " ServerSessions" +
                 " to come back to pool");
-
+        }
+        while (connectionsInUse.get() > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
             try {
-                wait(this.consumer.getSpec().getEndpointReleaseTimeout() * 1000);
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
             } catch (InterruptedException ie) {
+                break;
             }
         }
     }
 
-    public synchronized void releaseAllWaitingThreads() {
-        int count = waitQueue.size();
-        for (WaitQueueEntry waitQueueEntry : waitQueue) {
+    public void releaseAllWaitingThreads() {
+        int count = 0;
+        WaitQueueEntry waitQueueEntry;
+        while ((waitQueueEntry = waitQueue.poll()) != null) {
             _logger.log(Level.FINE, "Notifying the thread");
-            waitQueueEntry.setNotified(true);
-            synchronized (waitQueueEntry) {
-                waitQueueEntry.notify();
+            if (waitQueueEntry.release()) {
+                count++;
             }
         }
-        waitQueue.clear();
 
         _logger.log(Level.FINE, "Released a total of " + count + " requests");
     }
 
     public void releaseAllResources() {
-        Iterator it = resources.iterator();
+        destroyResources(resources, System.nanoTime() + TimeUnit.SECONDS.toNanos(
+            this.consumer.getSpec().getEndpointReleaseTimeout()));
+    }
+
+    /**
+     * Work that pre-creates ServerSessions during pool warm-up.
+     */
+    class WarmUpWork implements Work {
+        private int target;
+        private int gen;
 
-        while (it.hasNext()) {
-            InboundJmsResource obj = (InboundJmsResource) it.next();
+        WarmUpWork(int target, int gen) {
+            this.target = target;
+            this.gen = gen;
+        }
 
+        public void run() {
             try {
-                obj.destroy();
+                while (createIdleResource(target, gen)) {
+                    ;
+                }
             } catch (Exception e) {
-                // This is just to make sure that if one resource fails to destroy
-                // we still call destroy on others.
-                _logger.log(Level.SEVERE,
-                    "Cannot destroy resource " + obj.toString());
+                _logger.log(Level.WARNING, "ServerSession warm-up failed: " + e.getMessage());
+            } finally {
+                warmUpFinished();
             }
         }
+
+        public void release() {
+            // For now do nothing.
+        }
     }
 
-    private void resumeWaitingThread() {
-        if (!waitQueue.isEmpty()) {
-            _logger.log(Level.FINE, "Notifying the thread");
-            WaitQueueEntry waitQueueEntry = waitQueue.first();
-            waitQueue.remove(waitQueueEntry);
-            waitQueueEntry.setNotified(true);
-            synchronized (waitQueueEntry) {
-                waitQueueEntry.notify();
-            }
+    /**
+     * Work that pauses or resumes the connection of the pool.
+     */
+    class BackpressureWork implements Work {
+        public void run() {
+            applyBackpressure();
+        }
+
+        public void release() {
+            // For now do nothing.
+        }
+    }
+
+    /**
+     * Work that probes for the deployment of the MDB.
+     */
+    class DeploymentProbe implements Work {
+        private DeploymentGate gate;
+
+        DeploymentProbe(DeploymentGate gate) {
+            this.gate = gate;
+        }
+
+        public void run() {
+            probeDeployment(gate);
+        }
+
+        public void release() {
+            // For now do nothing.
+        }
+    }
+
+    /**
+     * Opened once the deployment probe is over; failed tells whether the
+     * MDB is still unavailable.
+     */
+    static class DeploymentGate {
+        final AtomicBoolean started = new AtomicBoolean(false);
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile boolean failed = false;
+
+        void open(boolean failed) {
+            this.failed = failed;
+            latch.countDown();
         }
     }
 
     /**
-     * The class that holds the logic of wait queue entries.
+     * A provider thread waiting for a ServerSession. An entry is completed
+     * exactly once: either a ServerSession is handed to it, it is released
+     * without one (pool stopped), or the waiter withdraws it.
      */
-    static class WaitQueueEntry implements Comparable<WaitQueueEntry> {
-        final long entryTime;
-        volatile boolean notified = false;
+    static class WaitQueueEntry {
+        private static final int WAITING = 0;
+        private static final int FULFILLED = 1;
+        private static final int RELEASED = 2;
+        private static final int CANCELLED = 3;
+
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private volatile InboundJmsResource resource = null;
+
+        boolean fulfill(InboundJmsResource resource) {
+            this.resource = resource;
+            return complete(FULFILLED);
+        }
 
-        WaitQueueEntry(long entryTime) {
-            this.entryTime = entryTime;
+        boolean release() {
+            return complete(RELEASED);
         }
 
-        @Override
-        public int compareTo(WaitQueueEntry obj) {
-            return (int)(entryTime - obj.entryTime);
+        boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED);
         }
 
-        void setNotified(boolean notified) {
-            this.notified = notified;
+        InboundJmsResource getResource() {
+            return (state.get() == FULFILLED) ? resource : null;
         }
 
-        boolean isNotified() {
-            return notified;
+        private boolean complete(int newState) {
+            if (state.compareAndSet(WAITING, newState)) {
+                synchronized (this) {
+                    notifyAll();
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Waits until the entry is completed. A timeout of zero waits
+         * until the entry is completed.
+         */
+        synchronized void await(long timeout) {
+            if (state.get() != WAITING) {
+                return;
+            }
+            try {
+                if (timeout > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, timeout);
+                } else {
+                    wait();
+                }
+            } catch (InterruptedException ie) {
+                // ignore
+            }
         }
     }
 }
@@ -74,8 +74,8 @@ public class ReconnectHelper implements ExceptionListener {
     }
     private void createConsumer() throws ResourceException {
         try {
-                this.consumer.closeConsumer();
-                this.consumer.restart();
+                this.consumer.closeConsumer(this.pool);
+                this.consumer.restart(this.pool);
         } catch (ResourceException re) {
                 _logger.log(Level.INFO,"Reconnection failed, Cannot create consumer");
                 try {
@@ -43,10 +43,11 @@ public class WorkImpl implements Work {
             this.jmsResource.refresh();
             this.jmsResource.getSession().run();
         } catch (Exception e) {
+            this.jmsResource.markEndpointFailed();
             e.printStackTrace();
         } finally {
             try {                
-                this.jmsResource.releaseEndpoint();
+                this.jmsResource.completeDelivery();
                 DeliveryHelper helper = this.jmsResource.getDeliveryHelper();
                 if (helper.markedForDMD()) {
                     helper.sendMessageToDMD();
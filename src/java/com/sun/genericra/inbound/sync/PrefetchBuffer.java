@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.inbound.sync;
+
+import com.sun.genericra.GenericJMSRA;
+import com.sun.genericra.inbound.AbstractJmsResource;
+import com.sun.genericra.inbound.ActivationSpec;
+import com.sun.genericra.inbound.DeadMessageProducer;
+import com.sun.genericra.util.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jakarta.jms.Destination;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+
+import jakarta.resource.spi.endpoint.MessageEndpointFactory;
+import jakarta.resource.spi.work.Work;
+import jakarta.resource.spi.work.WorkException;
+
+
+/**
+ * Local buffer of the messages prefetched by the receiver of a
+ * non-transacted sync session (PrefetchSize > 0).
+ *
+ * The receiver drains the destination into a bounded buffer and
+ * PrefetchWorkers works deliver the messages from it, each with its own
+ * endpoint, so that the delivery overlaps with the receives.
+ *
+ * The session is in CLIENT_ACKNOWLEDGE mode. As acknowledge() acknowledges
+ * every message consumed by the session, the receiver stops after
+ * PrefetchSize messages, waits until all of them have been delivered and
+ * acknowledges them at once. A message is never acknowledged before it has
+ * been delivered: the messages that are still in the buffer when the
+ * receiver stops are left unacknowledged, and are redelivered by the
+ * provider once the session is closed.
+ *
+ * As acknowledge() cannot leave out one message of the window, a message
+ * whose delivery failed is redelivered by the work from the buffer,
+ * RedeliveryInterval seconds later, up to RedeliveryAttempts times. After
+ * that it is sent to the dead message destination (SendBadMessagesToDMD)
+ * or dropped, as a non-transacted endpoint does, and the window is
+ * acknowledged: the messages delivered successfully are not delivered
+ * again. Only if the DMD cannot be reached, or if the receiver stops
+ * while a message is being redelivered, the window is recovered or left
+ * unacknowledged, and the provider redelivers all of its messages.
+ *
+ * All the methods except the ones of the delivery works must be called by
+ * the receiver thread, which owns the session.
+ */
+public class PrefetchBuffer {
+    private static Logger _logger;
+
+    static {
+        _logger = LogUtils.getLogger();
+    }
+
+    private static final long POLL_TIMEOUT = 1000;
+
+    private SyncJmsResource resource;
+    private SyncJmsResourcePool pool;
+    private ActivationSpec spec;
+    private GenericJMSRA ra;
+    private int sessionid;
+    private int capacity;
+    private int nworkers;
+    private ArrayBlockingQueue<Message> buffer;
+    private List<Deliverer> workers = new ArrayList<Deliverer>();
+    private Object lock = new Object();
+    /* Messages received since the last acknowledge */
+    private int received = 0;
+    /* Messages received since the last acknowledge, not yet delivered */
+    private int pending = 0;
+    private Message last = null;
+    /* Messages whose delivery failed RedeliveryAttempts + 1 times */
+    private List<Message> dead = new ArrayList<Message>();
+    /* A message could not be delivered since the last acknowledge */
+    private boolean failed = false;
+    private volatile boolean stopped = false;
+
+    public PrefetchBuffer(SyncJmsResource resource, int capacity, int workers) {
+        this.resource = resource;
+        this.pool = (SyncJmsResourcePool) resource.getPool();
+        this.spec = pool.getConsumer().getSpec();
+        this.ra = (GenericJMSRA) pool.getConsumer().getResourceAdapter();
+        this.sessionid = resource.getSessionid();
+        this.capacity = capacity;
+        this.nworkers = workers;
+        this.buffer = new ArrayBlockingQueue<Message>(capacity);
+    }
+
+    /**
+     * Starts the delivery works.
+     */
+    public void start() throws JMSException {
+        for (int i = 0; i < nworkers; i++) {
+            Deliverer d = new Deliverer(i);
+            workers.add(d);
+            try {
+                ra.getExecutor().execute(d);
+            } catch (WorkException we) {
+                requestStop();
+                throw ExceptionUtils.newJMSException(we);
+            }
+        }
+        _logger.log(Level.FINE, "Started " + nworkers + " delivery works for receiver #" +
+                sessionid + ", prefetch " + capacity);
+    }
+
+    /**
+     * Adds a message received by the session to the buffer. Returns true
+     * if PrefetchSize messages have been received since the last
+     * acknowledge, in which case acknowledge() has to be called before the
+     * next receive.
+     */
+    public boolean put(Message m) throws InterruptedException {
+        synchronized (lock) {
+            received++;
+            pending++;
+            last = m;
+        }
+        // Never blocks, there are at most capacity unacknowledged messages.
+        buffer.put(m);
+        synchronized (lock) {
+            return (received >= capacity);
+        }
+    }
+
+    /**
+     * Waits until the messages received so far have been delivered,
+     * hands the ones that could not be delivered off to the DMD and
+     * acknowledges them, or recovers the session if a message could not be
+     * delivered nor sent to the DMD. Returns without acknowledging if the
+     * buffer is stopped meanwhile.
+     */
+    public void acknowledge() throws JMSException {
+        Message m = null;
+        boolean recover = false;
+        List<Message> deadMessages = null;
+        synchronized (lock) {
+            while ((pending > 0) && !stopped) {
+                try {
+                    lock.wait(POLL_TIMEOUT);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+            if ((pending > 0) || (last == null)) {
+                return;
+            }
+            m = last;
+            recover = failed;
+            deadMessages = takeDead();
+            last = null;
+            received = 0;
+            failed = false;
+        }
+        if (!recover) {
+            recover = !handOff(deadMessages);
+        }
+        if (recover) {
+            _logger.log(Level.FINE, "Receiver #" + sessionid +
+                    " recovers the session after a failed delivery");
+            resource.getSession().recover();
+        } else {
+            m.acknowledge();
+        }
+    }
+
+    /**
+     * Asks the delivery works to stop after the message they are
+     * delivering.
+     */
+    public void requestStop() {
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops the delivery works. The messages still in the buffer are not
+     * delivered; the messages delivered since the last acknowledge are
+     * only acknowledged if no message has been left over and none of the
+     * deliveries failed, otherwise all of them are redelivered by the
+     * provider.
+     */
+    public void stop() {
+        requestStop();
+        List<Message> undelivered = new ArrayList<Message>();
+        buffer.drainTo(undelivered);
+        long deadline = System.nanoTime() +
+                TimeUnit.SECONDS.toNanos(spec.getEndpointReleaseTimeout());
+        Message m = null;
+        List<Message> deadMessages = null;
+        synchronized (lock) {
+            pending -= undelivered.size();
+            while (pending > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+            if (undelivered.isEmpty() && (pending == 0) && !failed) {
+                m = last;
+                deadMessages = takeDead();
+            } else if (last != null) {
+                _logger.log(Level.FINE, "Receiver #" + sessionid + " leaves " + received +
+                        " messages unacknowledged, " + undelivered.size() +
+                        " of them were not delivered");
+            }
+            last = null;
+            received = 0;
+            failed = false;
+            dead.clear();
+        }
+        if ((m != null) && handOff(deadMessages)) {
+            try {
+                m.acknowledge();
+            } catch (JMSException e) {
+                _logger.log(Level.FINE, "Acknowledge failed while stopping receiver #" +
+                        sessionid + " : " + e);
+            }
+        }
+    }
+
+    private List<Message> takeDead() {
+        if (dead.isEmpty()) {
+            return null;
+        }
+        List<Message> result = dead;
+        dead = new ArrayList<Message>();
+        return result;
+    }
+
+    /**
+     * Sends the messages that could not be delivered to the DMD, or drops
+     * them if SendBadMessagesToDMD is not set. Called by the receiver
+     * thread, the messages are sent in its session. Returns false if the
+     * DMD could not be reached.
+     */
+    private boolean handOff(List<Message> messages) {
+        if (messages == null) {
+            return true;
+        }
+        Destination dmd = pool.getConsumer().getDmdDestination();
+        if (!spec.getSendBadMessagesToDMD() || (dmd == null)) {
+            _logger.log(Level.WARNING, "Receiver #" + sessionid + " drops " +
+                    messages.size() + " prefetched messages after " +
+                    (spec.getRedeliveryAttempts() + 1) + " failed deliveries");
+            return true;
+        }
+        DeadMessageProducer producer = null;
+        try {
+            producer = new DeadMessageProducer(resource.getSession(), dmd);
+            for (Message m : messages) {
+                producer.send(m);
+            }
+            _logger.log(Level.INFO, "Receiver #" + sessionid + " sent " +
+                    messages.size() + " prefetched messages to the DMD");
+            return true;
+        } catch (JMSException e) {
+            _logger.log(Level.SEVERE, "FAILED : sending prefetched messages to DMD, receiver #" +
+                    sessionid + " : " + e.getMessage(), e);
+            return false;
+        } finally {
+            if (producer != null) {
+                try {
+                    producer.close();
+                } catch (JMSException e) {
+                    _logger.log(Level.FINE, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits RedeliveryInterval before the redelivery of a message.
+     * Returns false if the buffer is stopped meanwhile.
+     */
+    private boolean waitForRedelivery() {
+        long deadline = System.nanoTime() +
+                TimeUnit.SECONDS.toNanos(spec.getRedeliveryInterval());
+        synchronized (lock) {
+            while (!stopped) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return true;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException ie) {
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The message could not be delivered after RedeliveryAttempts
+     * redeliveries, it is handed off with the next acknowledge.
+     */
+    private void deadMessage(Message m) {
+        synchronized (lock) {
+            dead.add(m);
+        }
+    }
+
+    private void delivered(boolean success) {
+        synchronized (lock) {
+            if (!success) {
+                failed = true;
+            }
+            pending--;
+            if (pending <= 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Delivers messages from the buffer. The endpoint is reused according
+     * to EndpointReuseCount and EndpointReuseTime, and released after a
+     * failed delivery, as for the other resources of the pool; the session
+     * is the one of the receiver.
+     */
+    private class Deliverer extends AbstractJmsResource implements Work {
+        private int id;
+
+        Deliverer(int id) throws JMSException {
+            super(resource.getSession(), resource.getPool(), null);
+            this.id = id;
+        }
+
+        public void run() {
+            SyncJmsResourcePool pool = PrefetchBuffer.this.pool;
+            try {
+                while (!stopped) {
+                    Message m = null;
+                    try {
+                        m = buffer.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
+                    if (m == null) {
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    boolean success = false;
+                    pool.deliveryStarted();
+                    try {
+                        success = deliver(m);
+                        for (int i = 0; !success && (i < spec.getRedeliveryAttempts()); i++) {
+                            if (!waitForRedelivery()) {
+                                break;
+                            }
+                            success = deliver(m);
+                        }
+                        if (!success && !stopped) {
+                            deadMessage(m);
+                            success = true;
+                        }
+                    } finally {
+                        pool.deliveryEnded();
+                        pool.deliveryCompleted(System.nanoTime() - start);
+                        delivered(success);
+                    }
+                }
+            } finally {
+                destroy();
+                _logger.log(Level.FINE, "Stopped delivery work " + id +
+                        " of receiver #" + sessionid);
+            }
+        }
+
+        public void release() {
+            requestStop();
+        }
+
+        /**
+         * Releases the endpoint. The session belongs to the receiver and
+         * is left open.
+         */
+        public void destroy() {
+            if (endPoint != null) {
+                try {
+                    endPoint.release();
+                } catch (Exception e) {
+                    _logger.log(Level.FINE, "Release of the endpoint failed, receiver #" +
+                            sessionid + " : " + e.getMessage());
+                }
+                endPoint = null;
+            }
+        }
+
+        private boolean deliver(Message m) {
+            try {
+                if (endPoint == null) {
+                    MessageEndpointFactory mef = pool.getConsumer().getMessageEndpointFactory();
+                    endPoint = mef.createEndpoint(null);
+                    endpointCreated();
+                }
+                endPoint.beforeDelivery(ra.getListeningMethod());
+                try {
+                    ((jakarta.jms.MessageListener) endPoint).onMessage(m);
+                } catch (RuntimeException e) {
+                    markEndpointFailed();
+                    throw e;
+                } finally {
+                    endPoint.afterDelivery();
+                }
+                endpointUses++;
+                if (!canReuseEndpoint()) {
+                    destroy();
+                }
+                return true;
+            } catch (Exception e) {
+                _logger.log(Level.SEVERE, "Delivery of a prefetched message failed, receiver #" +
+                        sessionid + " : " + e.getMessage());
+                destroy();
+                return false;
+            }
+        }
+    }
+}
@@ -15,6 +15,8 @@ import jakarta.resource.spi.endpoint.MessageEndpointFactory;
 
 import java.util.logging.Level;
 import java.util.ArrayList;
+import java.util.List;
+import com.sun.genericra.ResourceManagerCache;
 import com.sun.genericra.inbound.AbstractJmsResourcePool;
 import com.sun.genericra.util.ExceptionUtils;
 import jakarta.jms.*;
@@ -30,8 +32,8 @@ public class SyncConsumer extends  com.sun.genericra.inbound.AbstractConsumer {
     private int mBatchSize;
     private boolean mHoldUntilAck;
     private SyncJmsResourcePool jmsPool;
+    private List<SyncJmsResourcePool> pools = new ArrayList<SyncJmsResourcePool>();
     private ArrayList mWorkers;
-    private SyncReconnectHelper reconHelper = null;
     /** Creates a new instance of SyncConsumer */
     public SyncConsumer(MessageEndpointFactory mef,
             jakarta.resource.spi.ActivationSpec actspec) throws ResourceException {
@@ -42,8 +44,24 @@ public class SyncConsumer extends  com.sun.genericra.inbound.AbstractConsumer {
     public AbstractJmsResourcePool getPool() {
         return jmsPool;
     }
+    
+    public List<SyncJmsResourcePool> getPools() {
+        return pools;
+    }
     public void initialize(boolean istx) throws ResourceException {
         super.validate();
+        mBatchSize = spec.getBatchSize();
+        mHoldUntilAck = spec.getHUAMode();
+        if ((mBatchSize > 1) && !istx) {
+            logger.log(Level.WARNING, "BatchSize " + mBatchSize + " is ignored, " +
+                    "messages are only delivered in batches in XA mode");
+        }
+        if ((spec.getPrefetchSize() > 0) && (istx || mHoldUntilAck ||
+                spec.getLocalTransacted())) {
+            logger.log(Level.WARNING, "PrefetchSize " + spec.getPrefetchSize() +
+                    " is ignored, messages are only prefetched for " +
+                    "non-transacted delivery without HUA mode");
+        }
         
         if ((mBatchSize > 1 || mHoldUntilAck) && this.transacted) {
             TxMgr txmgr = new TxMgr();
@@ -53,27 +71,40 @@ public class SyncConsumer extends  com.sun.genericra.inbound.AbstractConsumer {
             }catch (Exception e) {
                 throw ExceptionUtils.newResourceException(e);
             }
-            if (( mgr == null) && mHoldUntilAck) {
+            if (( mgr == null) && (mHoldUntilAck || (mBatchSize > 1))) {
                 logger.log(Level.FINE, "TxMgr could not be obtained: ");
-                throw new RuntimeException("Could not obtain TxMgr which is crucial for HUA mode: " );
+                throw new RuntimeException("Could not obtain TxMgr which is crucial for HUA and batch mode: " );
             }
             
         }
-        jmsPool = new SyncJmsResourcePool(this, istx);
-        jmsPool.initialize();
+        int count = getConnectionCount();
+        pools.clear();
+        for (int i = 0; i < count; i++) {
+            SyncJmsResourcePool pool = new SyncJmsResourcePool(this, istx, i, count);
+            pools.add(pool);
+            if (i == 0) {
+                jmsPool = pool;
+            }
+            pool.initialize();
+        }
     }
     
     public void start() throws ResourceException {
         setTransaction();
         initialize(this.transacted);
-        _start(jmsPool, this.dest);
+        for (SyncJmsResourcePool pool : pools) {
+            _start(pool, this.dest);
+        }
     }
-    public void restart() throws ResourceException {
-         _start(reconHelper.getPool(), dest);
+    /**
+     * Restarts a pool whose connection has been re-established.
+     */
+    public void restart(SyncJmsResourcePool pool) throws ResourceException {
+         _start(pool, dest);
     }
     private void _start(SyncJmsResourcePool pool, Destination destination) throws ResourceException {
         try {
-            this.reconHelper = new SyncReconnectHelper(pool, this);
+            SyncReconnectHelper reconHelper = new SyncReconnectHelper(pool, this);
             if (spec.getReconnectAttempts() > 0) {
                 pool.getConnection().setExceptionListener(reconHelper);
             }
@@ -85,15 +116,18 @@ public class SyncConsumer extends  com.sun.genericra.inbound.AbstractConsumer {
     }
     
     public void stop() {
-        try {
-            jmsPool.destroy();
-            logger.log(Level.FINE, "Destroyed the pool ");
-            if (jmsPool.getConnection() != null) {
-                jmsPool.getConnection().close();
-                logger.log(Level.FINE, "Closed the connection ");
+        for (SyncJmsResourcePool pool : pools) {
+            try {
+                pool.destroy();
+                logger.log(Level.FINE, "Destroyed the pool ");
+                if (pool.getConnection() != null) {
+                    ResourceManagerCache.getInstance().remove(pool.getConnection());
+                    pool.getConnection().close();
+                    logger.log(Level.FINE, "Closed the connection ");
+                }
+            } catch (Exception ex) {
+                logger.log(Level.WARNING, "Unexpected exception stopping JMS connection: " + ex, ex);
             }
-        } catch (Exception ex) {
-            logger.log(Level.WARNING, "Unexpected exception stopping JMS connection: " + ex, ex);
         }
     }
     
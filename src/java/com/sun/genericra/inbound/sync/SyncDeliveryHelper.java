@@ -14,6 +14,7 @@ import com.sun.genericra.inbound.*;
 
 import com.sun.genericra.AbstractXAResourceType;
 import com.sun.genericra.util.*;
+import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -32,7 +33,8 @@ import javax.transaction.xa.XAResource;
 /**
  * Helper class that delivers a message to MDB.
  * Important assumptions:
- * - There is one delivery helper for each message(delivery).
+ * - There is one delivery helper for each session, it is reset before
+ *   each message (delivery).
  * - Redelivery will be carried out by the same SyncDeliveryHelper.
  * @author Binod P.G
  */
@@ -54,6 +56,9 @@ public class SyncDeliveryHelper {
     boolean redeliveryFailed = false;
     Coordinator coord = null;
     boolean mHoldUntilAck;
+    boolean localTransacted;
+    LocalRedelivery redelivery;
+    WMessageInPool wrappers = new WMessageInPool();
 
     int acktimeout;
    
@@ -63,6 +68,8 @@ public class SyncDeliveryHelper {
         this.spec = pool.getConsumer().getSpec();
         this.jmsResource = jmsResource;
         this.transacted = pool.isTransacted();
+        this.localTransacted = pool.isLocalTransacted();
+        this.redelivery = new LocalRedelivery(this.spec);
         
         mHoldUntilAck = this.spec.getHUAMode();
         acktimeout = this.spec.getAckTimeOut();
@@ -76,8 +83,6 @@ public class SyncDeliveryHelper {
             }
         } else {
             xarObject = new SimpleXAResourceProxy(jmsResource.getXAResource());
-            
-            //this.xar = jmsResource.getXAResource();
         }
         
         xarObject.setRMPolicy(this.spec.getRMPolicy());
@@ -85,6 +90,20 @@ public class SyncDeliveryHelper {
         this.xar = xarObject;
     }
     
+    /**
+     * Clears the state of the previous delivery, so that the helper can be
+     * used for the next message.
+     */
+    public void reset() {
+        this.msg = null;
+        this.dest = null;
+        this.sentToDmd = false;
+        this.redeliveryFailed = false;
+        this.coord = null;
+        this.wrappers.recycle();
+        ((AbstractXAResourceType) this.xar).reset();
+    }
+    
     public boolean redeliveryRequired() {
         return this.transacted && (this.spec.getRedeliveryAttempts() > 0);
     }
@@ -211,6 +230,27 @@ public class SyncDeliveryHelper {
         
     }
     
+    /**
+     * Delivers a batch of messages to the endpoint in the transaction
+     * started by beforeDelivery(). Each message carries its index in the
+     * batch and the batch size in the JMSJCA.batchIndex and
+     * JMSJCA.batchSize properties. If a message cannot be delivered (or
+     * is set rollback only) the remaining messages are not delivered and
+     * the whole batch is rolled back, so that the provider redelivers it;
+     * the RA level redelivery and the DMD do not apply to batches.
+     */
+    public void deliverBatch(List<Message> messages, Destination d) {
+        this.dest = d;
+        try {
+            runBatchXA(messages);
+            _logger.log(Level.FINE, "Completed delivery of a batch of " +
+                    messages.size() + " messages");
+        } catch (Exception ee) {
+            _logger.log(Level.SEVERE, "Delivery of a batch of " + messages.size() +
+                    " messages failed, the batch is rolled back : " + ee, ee);
+        }
+    }
+    
     public void markForDMD() {
         this.sentToDmd = true;
     }
@@ -227,7 +267,8 @@ public class SyncDeliveryHelper {
                     "Now it is feeding the message to MDB instance");
             ((jakarta.jms.MessageListener) endPoint).onMessage(message);
         } catch (Exception e) {
-            if (transacted) {
+            jmsResource.markEndpointFailed();
+            if (transacted || mHoldUntilAck || localTransacted) {
                 throw ExceptionUtils.newResourceException(e);
             }
         }
@@ -361,6 +402,78 @@ public class SyncDeliveryHelper {
         }
     }
     
+    private void runBatchXA(List<Message> messages) throws Exception {
+        int size = messages.size();
+        coord = newCoord();
+        Transaction tx = null;
+        try {
+            tx = getTransaction(true);
+            deliverBatch(messages, size, tx);
+        } catch (Exception e) {
+            // The messages received so far must not be committed, whether
+            // they reached the endpoint or not.
+            coord.setRollbackOnly(e);
+            setRollbackOnly(tx);
+            throw e;
+        }
+    }
+
+    private void deliverBatch(List<Message> messages, int size, Transaction tx)
+    throws Exception {
+        for (int i = 0; i < size; i++) {
+            this.msg = messages.get(i);
+            try {
+                deliverMessage(wrapMsg(this.msg, coord, i, size));
+                coord.msgDelivered(true);
+            } catch (ResourceException r) {
+                _logger.log(Level.FINE, "Exception during delivery of message " + i +
+                        " of a batch, rolling back the batch");
+                coord.setRollbackOnly(r);
+                break;
+            }
+            if (coord.isRollbackOnly()) {
+                break;
+            }
+        }
+        if (redeliveryRequired()) {
+            // The delayed XA is started in any case, so that a failed
+            // batch is rolled back as a whole.
+            AbstractXAResourceType localXar = (AbstractXAResourceType) xar;
+            localXar.startDelayedXA();
+            localXar.setToRollback(true);
+        }
+        
+        coord.waitForAcks();
+        
+        // If the transaction was moved to a different thread, take it back
+        if (getTransaction(true) == null) {
+            mTxMgr.getTransactionManager().resume(tx);
+            _logger.log(Level.FINE, "Resumed the transaction ");
+        }
+        if (coord.isRollbackOnly()) {
+            _logger.log(Level.FINE, "Setting to RollBack because coordinator was rollback");
+            getTransaction(true).setRollbackOnly();
+        }
+    }
+
+    /**
+     * Marks the transaction of a failed batch rollback only. The
+     * transaction may not be associated with the thread any more if it
+     * was moved while waiting for the acknowledgements.
+     */
+    private void setRollbackOnly(Transaction tx) {
+        try {
+            if (tx != null) {
+                tx.setRollbackOnly();
+            } else if (mTxMgr != null) {
+                mTxMgr.getTransactionManager().setRollbackOnly();
+            }
+        } catch (Exception e) {
+            _logger.log(Level.SEVERE, "Could not set the transaction of the batch " +
+                    "rollback only : " + e, e);
+        }
+    }
+    
     private boolean mTxFailureLoggedOnce;
     
     private Transaction getTransaction(boolean mustSucceed) {
@@ -377,76 +490,65 @@ public class SyncDeliveryHelper {
     }
     
     private Message wrapMsg(Message toCopy, AckHandler ack, int iBatch) throws JMSException {
-        WMessageIn ret;
-        
-        // Check for multiple interfaces
-        int nItf = 0;
-        
-        if (toCopy instanceof TextMessage) {
-            nItf++;
-            ret = new WTextMessageIn((TextMessage) toCopy, ack, iBatch);
-        } else if (toCopy instanceof BytesMessage) {
-            nItf++;
-            ret = new WBytesMessageIn((BytesMessage) toCopy, ack, iBatch);
-        } else if (toCopy instanceof MapMessage) {
-            nItf++;
-            ret = new WMapMessageIn((MapMessage) toCopy, ack, iBatch);
-        } else if (toCopy instanceof ObjectMessage) {
-            nItf++;
-            ret = new WObjectMessageIn((ObjectMessage) toCopy, ack, iBatch);
-        } else if (toCopy instanceof StreamMessage) {
-            nItf++;
-            ret = new WStreamMessageIn((StreamMessage) toCopy, ack, iBatch);
-        } else {
-            nItf++;
-            ret = new WMessageIn(toCopy, ack, iBatch);
-        }
-        
-        if (nItf > 1) {
-            throw new JMSException("Cannot determine message type: the message "
-                    + "implements multiple interfaces.");
-        }
-        
-        //  ret.setBatchSize(mBatchSize);
-        
-        return ret;
+        return wrapMsg(toCopy, ack, iBatch, 0);
+    }
+    
+    private Message wrapMsg(Message toCopy, AckHandler ack, int iBatch, int batchSize)
+    throws JMSException {
+        return wrappers.wrap(toCopy, ack, iBatch, batchSize);
     }
     
     
     
+    /**
+     * Delivers a message without XA. In HUA mode the session is locally
+     * transacted: the message is committed once the endpoint has called
+     * acknowledge() on it, and rolled back if the delivery failed, if
+     * the message was set rollback only or if it was not acknowledged
+     * within AckTimeOut seconds. With LocalTransacted the session is
+     * committed once the message has been delivered, and rolled back if
+     * the delivery failed (see LocalRedelivery for the redelivery limit).
+     */
     private void runOnceStdNoXA() throws Exception {
-    	
-    	// Issue 41
-    	// The functionality for hold until ack mode is incomplete and of unknown quality,
-    	// and definitely doesn't work for NoXA mode
-    	// comment it all out
-    	
-        if (msg != null) {
-//            // Optionally wrap for ack() call
-//            /*
-//             * TODO : The message  wrappers need to be optimized
-//             * we might not beed one wrapper class for each message
-//             * type
-//             */
-//            coord = newCoord();
-//            msg = mHoldUntilAck ? wrapMsg(msg, coord, -1) : msg;
-//            try {
+        if (msg == null) {
+            return;
+        }
+        if (!mHoldUntilAck && !localTransacted) {
+            deliverMessage(msg);
+            return;
+        }
+        if (!mHoldUntilAck) {
+            Session session = this.jmsResource.getSession();
+            try {
                 deliverMessage(msg);
-//                coord.msgDelivered(true);
-//            }catch (ResourceException r) {
-//                coord.setRollbackOnly(r);
-//            }
-//            
-//            // Wait for ack() to be called if applicable
-//            coord.waitForAcks();
-//            
-//            // Commit/rollback
-//            if (!coord.isRollbackOnly()) {
-//                this.jmsResource.getSession().commit();
-//            } else {
-//                this.jmsResource.getSession().rollback();
-//            }
-//            this.jmsResource.releaseEndpoint();
+            } catch (ResourceException r) {
+                redelivery.deliveryFailed(session, msg, dest);
+                return;
+            }
+            session.commit();
+            _logger.log(Level.FINE, "Committed the delivered message");
+            return;
+        }
+        
+        coord = newCoord();
+        try {
+            deliverMessage(wrapMsg(msg, coord, -1));
+            coord.msgDelivered(true);
+        } catch (ResourceException r) {
+            coord.setRollbackOnly(r);
+        }
+        
+        // Wait for ack() to be called
+        coord.waitForAcks();
+        
+        // Commit/rollback
+        Session session = this.jmsResource.getSession();
+        if (!coord.isRollbackOnly()) {
+            session.commit();
+            _logger.log(Level.FINE, "Committed the acknowledged message");
+        } else {
+            session.rollback();
+            _logger.log(Level.FINE, "Rolled back the message");
         }
     }
     
@@ -557,8 +659,9 @@ public class SyncDeliveryHelper {
 		public void waitForAcks() throws InterruptedException {
 
 			_logger.log(Level.FINE, "Tying to acquire a semaphore");
-			if (!mSemaphore.tryAcquire(acktimeout, TimeUnit.SECONDS)) {
-				_logger.log(Level.FINE, "Acquired");
+			if (!mSemaphore.tryAcquire(mNAcksToExpect, acktimeout, TimeUnit.SECONDS)) {
+				_logger.log(Level.WARNING, "Message not acknowledged within " +
+						acktimeout + " seconds, rolling back");
 				setRollbackOnly();
 			}
 			/*
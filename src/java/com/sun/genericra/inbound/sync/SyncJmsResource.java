@@ -75,28 +75,47 @@ public class SyncJmsResource extends AbstractJmsResource {
                     "Sync Provider is starting the message consumtion #" + sessionid);
             
             w = new SyncWorker(this);
-            WorkManager wm = ra.getWorkManager();
-            wm.scheduleWork(w);
+            ra.getExecutor().execute(w);
         } catch (WorkException we) {
             throw ExceptionUtils.newJMSException(we);
         } 
     }
     
     /**
-     * Each time a serversession is checked out from the pool, the listener
-     * will be recreated.
+     * Resets the delivery helper before a message is received. The helper
+     * (with its XAResource proxy) is created once and lives as long as the
+     * session.
      */
     public void refreshListener() throws JMSException {
-        
-        helper = new SyncDeliveryHelper(this, (SyncJmsResourcePool)pool);
-        
-      //  return this;
+        if (helper == null) {
+            helper = new SyncDeliveryHelper(this, (SyncJmsResourcePool)pool);
+        } else {
+            helper.reset();
+        }
     }
     
     public boolean getIsWorkStopped() {
         return stopWork;
     }
     
+    /**
+     * Asks the receiver of this session to stop, without waiting for it.
+     */
+    public void requestStop() {
+        stopWork = true;
+        if (w != null) {
+            ((SyncWorker) w).requestStop();
+        }
+    }
+    
+    /**
+     * Waits until the receiver of this session has stopped or the deadline
+     * (System.nanoTime()) has passed. Returns true if it has stopped.
+     */
+    public boolean awaitStopped(long deadline) {
+        return (w == null) || ((SyncWorker) w).awaitStopped(deadline);
+    }
+    
     public void destroy() {        
         if (session != null) {
             try {
@@ -134,16 +153,37 @@ public class SyncJmsResource extends AbstractJmsResource {
     }
     
     /**
-     * Creates the MessageEndpoint and start the delivery.
+     * Creates the MessageEndpoint and start the delivery. An endpoint kept
+     * from the previous message (EndpointReuseCount) is used instead of
+     * creating a new one.
      */
     public void refresh() throws JMSException {
+        if ((this.endPoint != null) && !this.delivering) {
+            if (endpointExpired()) {
+                release();
+            } else {
+                try {
+                    endPoint.beforeDelivery(this.ra.getListeningMethod());
+                    delivering = true;
+                    endpointUses++;
+                    return;
+                } catch (Exception e) {
+                    _logger.log(Level.FINE, "Before delivery failed, recreating the endpoint #"
+                            + sessionid);
+                    release();
+                }
+            }
+        }
         MessageEndpointFactory mef = pool.getConsumer()
         .getMessageEndpointFactory();       
         try {
             _logger.log(Level.FINER, "Creating message endpoint #" + sessionid +
                     xaresource);
             endPoint = mef.createEndpoint(helper.getXAResource());
+            endpointCreated();
             endPoint.beforeDelivery(this.ra.getListeningMethod());
+            delivering = true;
+            endpointUses++;
             _logger.log(Level.FINE, "Created endpoint  #" + sessionid);
         } catch (Exception e) {
             e.printStackTrace();
@@ -158,7 +198,8 @@ public class SyncJmsResource extends AbstractJmsResource {
      */
     public void releaseEndpoint() {
         try {
-            if (this.endPoint != null) {
+            if ((this.endPoint != null) && this.delivering) {
+                this.delivering = false;
                 this.endPoint.afterDelivery();
                 _logger.log(Level.FINE,"After Delivery success in SyncJmsResource");
             }
@@ -183,7 +224,27 @@ public class SyncJmsResource extends AbstractJmsResource {
         }
     }
     
+    /**
+     * Completes the Message delivery. The endpoint is kept for the next
+     * message if it may be reused, otherwise it is released.
+     */
+    public void completeDelivery() {
+        if (!canReuseEndpoint()) {
+            releaseEndpoint();
+            return;
+        }
+        try {
+            this.delivering = false;
+            this.endPoint.afterDelivery();
+        } catch (Exception re) {
+            _logger.log(Level.SEVERE, "After delivery failed in resource #" + sessionid
+                        + re.getMessage());
+            release();
+        }
+    }
+    
     public void release() {
+            this.delivering = false;
             if (this.endPoint != null) {
                 try {
                     this.endPoint.release();
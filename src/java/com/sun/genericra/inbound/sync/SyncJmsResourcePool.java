@@ -14,8 +14,10 @@ import com.sun.genericra.inbound.AbstractJmsResourcePool;
 import com.sun.genericra.outbound.ConnectionFactory;
 import com.sun.genericra.util.ExceptionUtils;
 import com.sun.genericra.util.LogUtils;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import java.util.logging.Level;
@@ -39,23 +41,51 @@ public class SyncJmsResourcePool extends AbstractJmsResourcePool    {
     
     private int connections;
     
-    private List mResources;
+    private List<SyncJmsResource> mResources;
     private int mSessions;
     private int mBatchSize;
     private boolean mHoldUntilAck;
+    private int mPrefetchSize = 0;
     private boolean stopped = true;
+    private Object activationLock = new Object();
+    private AtomicLong deliveries = new AtomicLong(0);
+    private AtomicLong emptyPolls = new AtomicLong(0);
+    private long lastDeliveries = 0;
+    private long lastEmptyPolls = 0;
+    private static long PARK_TIMEOUT = 500;
+    private boolean elastic;
+    private int minReceivers;
+    private AtomicInteger busy = new AtomicInteger(0);
+    private volatile long lastScaling = 0;
+    /**
+     * Consecutive messages a receiver has to get before a receiver is
+     * added, and consecutive empty receives before it may retire. The
+     * receivers are not scaled more than once per scalingInterval.
+     */
+    private int growThreshold;
+    private int shrinkThreshold;
+    private long scalingInterval;
+    /* Receivers removed from the pool that have not stopped yet.
+     */
+    private List<SyncJmsResource> mRetiring;
     /** Creates a new instance of SyncJmsResourcePool */
     public SyncJmsResourcePool(SyncConsumer cons, boolean transacted) {
-        super(cons, transacted);
+        this(cons, transacted, 0, 1);
+    }
+    
+    public SyncJmsResourcePool(SyncConsumer cons, boolean transacted,
+            int stripe, int stripes) {
+        super(cons, transacted, stripe, stripes);
         if (this.consumer.getSpec().getDeliveryConcurrencyMode() ==
                 "SERIAL") {
             mSessions = 1;
         } else if (this.consumer.getSpec().getDestinationType().equals(
-                jakarta.jms.Topic.class.getName())) {
+                jakarta.jms.Topic.class.getName()) &&
+                !this.consumer.getSpec().getSharedSubscription()) {
             mSessions = 1;
         } else {
-            mSessions =
-                    this.consumer.getSpec().getMaxPoolSize();
+            mSessions = Math.max(1,
+                    stripeShare(this.consumer.getSpec().getMaxPoolSize()));
         }
         
         _logger.log(Level.FINE, "number of sessions specified to be " + mSessions);
@@ -67,7 +97,15 @@ public class SyncJmsResourcePool extends AbstractJmsResourcePool    {
         if (huaMode) {
             mHoldUntilAck = true;
         }
-        mResources = new ArrayList();
+        // Prefetch, only for non-transacted sessions
+        if (!isTransacted() && !mHoldUntilAck && !isLocalTransacted()) {
+            mPrefetchSize = this.consumer.getSpec().getPrefetchSize();
+        }
+        growThreshold = this.consumer.getSpec().getReceiverGrowThreshold();
+        shrinkThreshold = this.consumer.getSpec().getReceiverShrinkThreshold();
+        scalingInterval = this.consumer.getSpec().getReceiverScalingInterval();
+        mResources = new CopyOnWriteArrayList<SyncJmsResource>();
+        mRetiring = new CopyOnWriteArrayList<SyncJmsResource>();
     }
     
     public int getBatchSize(){
@@ -78,40 +116,60 @@ public class SyncJmsResourcePool extends AbstractJmsResourcePool    {
         return this.mHoldUntilAck;
     }
     
+    public int getPrefetchSize() {
+        return this.mPrefetchSize;
+    }
+    
+    int getGrowThreshold() {
+        return this.growThreshold;
+    }
+    
+    int getShrinkThreshold() {
+        return this.shrinkThreshold;
+    }
+    
     public int getSessions() {
         return this.mSessions;
     }
     public int getMaxSize() {
-        return 1;
+        return this.mSessions;
     }
     
+    /**
+     * Receivers do not wait for a resource.
+     */
     public long getMaxWaitTime() {
-        return 1;
+        return 0;
     }
     
     public int getCurrentResources() {
-        
-        return 1;
+        return mResources.size();
     }
     
     public int getBusyResources() {
-        
-        return 1;
+        return busy.get();
     }
     
     public int getFreeResources() {
-        
-        return 1;
+        return Math.max(0, getCurrentResources() - busy.get());
     }
     
     public int getConnectionsInUse() {
-        return 1;
+        return busy.get();
     }
     
     public int getWaiting() {
-        
-        return 1;
+        return 0;
+    }
+    
+    public int getActiveReceivers() {
+        return Math.min(getCurrentResources(), getConcurrencyLimit());
+    }
+    
+    public int getParkedReceivers() {
+        return getCurrentResources() - getActiveReceivers();
     }
+
     public synchronized void initialize() throws ResourceException {
         try {
             this.sessions = consumer.getSpec().getMaxPoolSize();
@@ -123,8 +181,10 @@ public class SyncJmsResourcePool extends AbstractJmsResourcePool    {
                 _logger.log(Level.FINE, "Creating XA Connection ");                
                 this.con = createXAConnection(xacf);
                 String clientID = consumer.getSpec().getClientID();
-                //Set the clientID only if it is not null
-                if (clientID != null && !"".equals(clientID))
+                //Set the clientID only if it is not null, and only on the
+                //first connection of the consumer since it has to be unique
+                if (clientID != null && !"".equals(clientID) && stripe == 0
+                        && consumer.useClientId())
                     con.setClientID(clientID);
                 _logger.log(Level.FINE, "DMD connection factory " + consumer.getDmdConnectionFactory());
                 jakarta.jms.ConnectionFactory cf = (jakarta.jms.ConnectionFactory) consumer.getDmdConnectionFactory();
@@ -142,12 +202,21 @@ public class SyncJmsResourcePool extends AbstractJmsResourcePool    {
                 cf = (jakarta.jms.ConnectionFactory) consumer.getConnectionFactory();
                 this.con = createConnection(cf);
                 String clientID = consumer.getSpec().getClientID();
-                 //Set the clientID only if it is not null
-                if (clientID != null && !"".equals(clientID))
+                 //Set the clientID only if it is not null (first connection only)
+                if (clientID != null && !"".equals(clientID) && stripe == 0
+                        && consumer.useClientId())
                     con.setClientID(clientID);
             }
+            startConcurrencyControl(stripeShare(consumer.getSpec().getMinPoolSize()), mSessions);
+            elastic = consumer.getSpec().getElasticReceivers();
+            minReceivers = Math.min(mSessions,
+                    Math.max(1, stripeShare(consumer.getSpec().getMinPoolSize())));
+            int receivers = elastic ? minReceivers : mSessions;
+            mResources.clear();
+            busy.set(0);
+            stopped = false;
             try {
-                for (int i = 0; i < mSessions; i++) {
+                for (int i = 0; i < receivers; i++) {
                     SyncJmsResource res = create();
                     res.setSessionid(i);
                     mResources.add(res);
@@ -157,12 +226,145 @@ public class SyncJmsResourcePool extends AbstractJmsResourcePool    {
             } catch (JMSException e) {
                 throw e;
             }
-            stopped = false;
         } catch (JMSException e) {
             throw ExceptionUtils.newResourceException(e);
         }
     }
     
+    /**
+     * Receivers whose session id is not below the concurrency limit are
+     * parked. Returns true if the receiver with the given session id may
+     * receive messages, otherwise waits a while for the limit to be raised.
+     */
+    public boolean awaitActivation(int sessionid) {
+        if (sessionid < getConcurrencyLimit()) {
+            return true;
+        }
+        synchronized (activationLock) {
+            if (sessionid >= getConcurrencyLimit()) {
+                try {
+                    activationLock.wait(PARK_TIMEOUT);
+                } catch (InterruptedException ie) {
+                    // ignore
+                }
+            }
+        }
+        return sessionid < getConcurrencyLimit();
+    }
+
+    /**
+     * Called by a receiver that kept getting messages. Starts one more
+     * receiver if the pool is elastic and the limits allow it.
+     */
+    void receiverBusy() {
+        if (!elastic || !scalingAllowed()) {
+            return;
+        }
+        synchronized (this) {
+            int size = mResources.size();
+            if (stopped || (size >= Math.min(mSessions, getConcurrencyLimit()))) {
+                return;
+            }
+            try {
+                SyncJmsResource res = create();
+                res.setSessionid(size);
+                mResources.add(res);
+                res.start();
+                lastScaling = System.currentTimeMillis();
+                _logger.log(Level.INFO, "Added sync receiver #" + size +
+                        ", receivers: " + mResources.size());
+            } catch (JMSException e) {
+                _logger.log(Level.WARNING, "Could not add a sync receiver: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Called by a receiver that kept getting empty receives. Returns true
+     * if the receiver has been removed from the pool; it is then asked to
+     * stop, the same way stop() does, and closes its session once it has
+     * stopped. Only the receiver with the highest session id retires, so
+     * that the ids of the receivers stay contiguous.
+     */
+    boolean retireReceiver(SyncJmsResource res) {
+        if (!elastic || !scalingAllowed()) {
+            return false;
+        }
+        synchronized (this) {
+            int size = mResources.size();
+            if (stopped || (size <= minReceivers) || (res.getSessionid() != (size - 1))) {
+                return false;
+            }
+            mResources.remove(res);
+            mRetiring.add(res);
+            lastScaling = System.currentTimeMillis();
+            _logger.log(Level.INFO, "Retiring sync receiver #" + res.getSessionid() +
+                    ", receivers: " + mResources.size());
+        }
+        res.requestStop();
+        return true;
+    }
+
+    /**
+     * Called by a retired receiver once it has stopped and closed its
+     * session.
+     */
+    void receiverRetired(SyncJmsResource res) {
+        mRetiring.remove(res);
+    }
+
+    private boolean scalingAllowed() {
+        return (System.currentTimeMillis() - lastScaling) >= scalingInterval;
+    }
+
+    void deliveryStarted() {
+        busy.incrementAndGet();
+    }
+
+    void deliveryEnded() {
+        busy.decrementAndGet();
+    }
+
+    public void deliveryCompleted(long nanos) {
+        deliveries.incrementAndGet();
+        super.deliveryCompleted(nanos);
+    }
+
+    /**
+     * Records a receive that did not return a message.
+     */
+    public void emptyPoll() {
+        emptyPolls.incrementAndGet();
+    }
+
+    /**
+     * Percentage of the receives that did not return a message.
+     */
+    public int getEmptyPollRatio() {
+        long e = emptyPolls.get();
+        long total = e + deliveries.get();
+        return (total == 0) ? 0 : (int) ((e * 100) / total);
+    }
+
+    /**
+     * There is demand for more receivers if messages were delivered since
+     * the last check and none of the active receivers came back empty.
+     */
+    protected boolean hasPendingDemand() {
+        long d = deliveries.get();
+        long e = emptyPolls.get();
+        boolean demand = (d > lastDeliveries) && (e == lastEmptyPolls);
+        lastDeliveries = d;
+        lastEmptyPolls = e;
+        return demand;
+    }
+
+    protected void concurrencyLimitChanged(int oldLimit, int newLimit) {
+        synchronized (activationLock) {
+            activationLock.notifyAll();
+        }
+    }
+
     public SyncJmsResource create() throws JMSException {
         _logger.log(Level.FINER, "Creating the Session");
         
@@ -174,35 +376,67 @@ public class SyncJmsResourcePool extends AbstractJmsResourcePool    {
             xar = getXAResource((XASession) sess);
             _logger.log(Level.FINE, "Created new XA Session");
         } else {
-            sess = createSession(con);
+            // In HUA mode the messages are committed or rolled back on
+            // acknowledge(), which needs a transacted session, as does
+            // LocalTransacted.
+            // The prefetched messages are acknowledged once they have been
+            // delivered, see PrefetchBuffer.
+            if (mPrefetchSize > 0) {
+                sess = createSession(con, Session.CLIENT_ACKNOWLEDGE);
+            } else {
+                sess = createSession(con, mHoldUntilAck || isLocalTransacted());
+            }
             _logger.log(Level.FINE, "Created new Session");
         }
         
         return new SyncJmsResource(sess, this, xar);
     }
     public void releaseAllResources() {
-        Iterator it = mResources.iterator();
-        
-        while (it.hasNext()) {
-            SyncJmsResource obj = (SyncJmsResource) it.next();
-            
-            try {
-                obj.destroy();
-            } catch (Exception e) {
-                // This is just to make sure that if one resource fails to destroy
-                // we still call  destroy on others.
-                _logger.log(Level.SEVERE,
-                        "Cannot destroy resource " + obj.toString());
-            }
-        }
+        destroyResources(mResources, System.nanoTime() + TimeUnit.SECONDS.toNanos(
+                this.consumer.getSpec().getEndpointReleaseTimeout()));
     }
     /**
      * Stops message delivery. Any message that is currently being delivered
      * will not be affected. It can be resumed later.
+     *
+     * All receivers are asked to stop at once and get up to
+     * EndpointReleaseTimeout to complete the delivery in progress, then
+     * the sessions are closed in parallel.
      */
     public void stop() throws JMSException {
-        this.stopped = true;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(
+                this.consumer.getSpec().getEndpointReleaseTimeout());
+        synchronized (this) {
+            // No receiver is added or retired from now on.
+            this.stopped = true;
+        }
+        stopConcurrencyControl();
+        for (SyncJmsResource res : mResources) {
+            res.requestStop();
+        }
+        synchronized (activationLock) {
+            activationLock.notifyAll();
+        }
+        int abandoned = 0;
+        for (SyncJmsResource res : mResources) {
+            if (!res.awaitStopped(deadline)) {
+                abandoned++;
+            }
+        }
+        // Do not close the connection under a receiver still retiring
+        for (SyncJmsResource res : mRetiring) {
+            res.awaitStopped(deadline);
+        }
+        abandonedDeliveries = abandoned;
         releaseAllResources();
+        drainTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (abandoned > 0) {
+            _logger.log(Level.WARNING, "Receivers stopped in " + drainTime +
+                    " ms, " + abandoned + " deliveries still in progress were abandoned");
+        } else {
+            _logger.log(Level.FINE, "Receivers stopped in " + drainTime + " ms");
+        }
         
         if (dmdCon != null) {
             this.dmdCon.close();
@@ -86,7 +86,7 @@ public class SyncReconnectHelper implements ExceptionListener {
                 this.pool.stop();
                 this.pool.initialize();
                 _logger.log(Level.INFO, "Reconnect successful with pool->" + i);                
-                this.consumer.restart();                
+                this.consumer.restart(this.pool);                
                 _logger.log(Level.INFO, "Restarted Consumer->" + i);                
                 result = true;
                 
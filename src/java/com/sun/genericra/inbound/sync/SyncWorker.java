@@ -11,6 +11,9 @@
 package com.sun.genericra.inbound.sync;
 import com.sun.genericra.util.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
 import jakarta.jms.BytesMessage;
 import jakarta.jms.JMSException;
@@ -32,12 +35,23 @@ public class SyncWorker implements Work {
     }
     
     private volatile boolean mIsStopped = true;
+    private boolean mIsRunning = false;
     private Object mIsStoppedLock = new Object();
     private jakarta.jms.MessageConsumer mReceiver;
     private jakarta.jms.Session mSess;
     private SyncJmsResource resource = null;
     private int sessionid;
-    private static long TIMEOUT = 100;
+    private long mMinTimeout;
+    private long mMaxTimeout;
+    private long mTimeout;
+    private boolean mBurst = false;
+    private volatile boolean mInReceive = false;
+    private int mBatchSize;
+    private int mConsecutiveMessages = 0;
+    private int mConsecutiveEmpty = 0;
+    private boolean mRetired = false;
+    private long mBatchTimeout;
+    private PrefetchBuffer mPrefetch = null;
     
     private static long WAIT_TIMEOUT = 1000;
     boolean requiresrefresh = true;
@@ -50,6 +64,19 @@ public class SyncWorker implements Work {
         this.resource = res;
         sessionid = this.resource.getSessionid();
         mReceiver = this.resource.getReceiver();
+        mMinTimeout = res.getPool().getConsumer().getSpec().getMinReceiveTimeout();
+        mMaxTimeout = res.getPool().getConsumer().getSpec().getMaxReceiveTimeout();
+        mTimeout = mMinTimeout;
+        mBatchSize = res.getPool().isTransacted() ?
+                res.getPool().getConsumer().getSpec().getBatchSize() : 1;
+        mBatchTimeout = res.getPool().getConsumer().getSpec().getBatchTimeout();
+        int prefetch = ((SyncJmsResourcePool) res.getPool()).getPrefetchSize();
+        if (prefetch > 0) {
+            mPrefetch = new PrefetchBuffer(res, prefetch,
+                    res.getPool().getConsumer().getSpec().getPrefetchWorkers());
+            // The messages are delivered by the works of the buffer
+            requiresrefresh = false;
+        }
     }
     
     
@@ -61,14 +88,18 @@ public class SyncWorker implements Work {
         /* Close the connection here  ?, no, there might be
          * other sessions using the connection, close only the receiver.
          */
-        if (mReceiver != null) {
+        jakarta.jms.MessageConsumer receiver = null;
+        synchronized (mIsStoppedLock) {
+            receiver = mReceiver;
+            mReceiver = null;
+        }
+        if (receiver != null) {
             try {
-                mReceiver.close();
+                receiver.close();
             } catch (JMSException e) {
                 _logger.log(Level.WARNING, "Non-critical failure to close a " +
                         "message consumer: " + e);
             }
-            mReceiver = null;
         }
         //Thread.dumpStack();
         _logger.log(Level.FINE,"Closed Synchronouse receiver #" +
@@ -90,21 +121,61 @@ public class SyncWorker implements Work {
                 return;
             }
             mIsStopped = false;
+            mIsRunning = true;
         }
         _logger.log(Level.INFO,"Starting synchronouse receiver #" +
                 sessionid);
+        SyncJmsResourcePool pool = (SyncJmsResourcePool) this.resource.getPool();
+        if (mPrefetch != null) {
+            try {
+                mPrefetch.start();
+            } catch (JMSException e) {
+                _logger.log(Level.SEVERE, "Could not start the delivery works of receiver #" +
+                        sessionid + ", delivering without prefetch : " + e);
+                mPrefetch.stop();
+                mPrefetch = null;
+                requiresrefresh = true;
+            }
+        }
         for (;;) {
+            if (!pool.awaitActivation(sessionid)) {
+                // Parked by the concurrency limit of the pool.
+                synchronized (mIsStoppedLock) {
+                    if (mIsStopped) {
+                        _logger.log(Level.INFO, "Stopping synchronous receiver #" +
+                                sessionid);
+                        mIsStoppedLock.notifyAll();
+                        break;
+                    }
+                }
+                if (pool.retireReceiver(this.resource)) {
+                    // Parked receivers are not needed by an elastic pool,
+                    // the pool has asked this one to stop.
+                    mRetired = true;
+                    break;
+                }
+                continue;
+            }
             try {
 		//_logger.log(Level.FINEST,"Running Receiver #" + sessionid);
-                if (requiresrefresh) {
+                if (requiresrefresh && (mPrefetch == null)) {
 		_logger.log(Level.FINE,"Refreshing Receiver #" + sessionid);
                     this.resource.refreshListener();
                     this.resource.refresh();
                     requiresrefresh = false;
 		_logger.log(Level.FINE,"Refresed Receiver #" + sessionid);
                 }
-                Message m = mReceiver.receive(TIMEOUT);
-                if (m != null) {
+                Message m = receive();
+                if ((m != null) && (mPrefetch != null)) {
+                    if (mPrefetch.put(m)) {
+                        mPrefetch.acknowledge();
+                    }
+                    mConsecutiveEmpty = 0;
+                    if (++mConsecutiveMessages >= pool.getGrowThreshold()) {
+                        mConsecutiveMessages = 0;
+                        pool.receiverBusy();
+                    }
+                } else if (m != null) {
                     requiresrefresh = true;
                     SyncDeliveryHelper helper = this.resource.getDeliveryHelper();
                     /* The destination will not be null when the TODO for
@@ -115,10 +186,44 @@ public class SyncWorker implements Work {
                      * and depending on the the success /failure of it  it has to
                      * do the needful to the inbound message (commit/rollback).
                      */
-                    helper.deliver(m, this.resource.getPool().getConsumer().getDmdDestination());
+                    long start = System.nanoTime();
+                    pool.deliveryStarted();
+                    try {
+                        if (mBatchSize > 1) {
+                            List<Message> batch = collectBatch(m);
+                            helper.deliverBatch(batch,
+                                    this.resource.getPool().getConsumer().getDmdDestination());
+                            long average = (System.nanoTime() - start) / batch.size();
+                            for (int i = 0; i < batch.size(); i++) {
+                                pool.deliveryCompleted(average);
+                            }
+                        } else {
+                            helper.deliver(m, this.resource.getPool().getConsumer().getDmdDestination());
+                            pool.deliveryCompleted(System.nanoTime() - start);
+                        }
+                    } finally {
+                        pool.deliveryEnded();
+                    }
+                    mConsecutiveEmpty = 0;
+                    if (++mConsecutiveMessages >= pool.getGrowThreshold()) {
+                        mConsecutiveMessages = 0;
+                        pool.receiverBusy();
+                    }
 		_logger.log(Level.FINE,"Delivered message Receiver #" + sessionid);
                 }else {
                     requiresrefresh = false;
+                    pool.emptyPoll();
+                    if (mPrefetch != null) {
+                        // Nothing left to receive, acknowledge what has
+                        // been prefetched so far once it is delivered.
+                        mPrefetch.acknowledge();
+                    }
+                    mConsecutiveMessages = 0;
+                    if (++mConsecutiveEmpty >= pool.getShrinkThreshold()) {
+                        mConsecutiveEmpty = 0;
+                        // The pool asks the receiver to stop if it retires
+                        mRetired = pool.retireReceiver(this.resource);
+                    }
                 }
                 
                 synchronized (mIsStoppedLock) {
@@ -131,6 +236,12 @@ public class SyncWorker implements Work {
                 }
                 
             } catch (Exception ex) {
+                if (mIsStopped) {
+                    // The receiver has been closed to wake it up.
+                    _logger.log(Level.FINE, "Receiver #" + sessionid +
+                            " closed while stopping: " + ex);
+                    break;
+                }
                 _logger.log(Level.SEVERE, "Exception during receive , Receiver #" +
                         sessionid + ex);
                 break;
@@ -141,7 +252,7 @@ public class SyncWorker implements Work {
             } finally {
                 if (requiresrefresh) {
                     try {
-                        this.resource.releaseEndpoint();
+                        this.resource.completeDelivery();
                     } catch (Exception ee) {
                         ;
                     }
@@ -168,9 +279,22 @@ public class SyncWorker implements Work {
          * a closed thread, so this thread should be alive for the duration of
          * the consumer
          */
+        if (mPrefetch != null) {
+            mPrefetch.stop();
+        }
         this.resource.releaseEndpoint();
          _logger.log(Level.FINE, "Closing the receiver from run #" + sessionid);
         close();
+        if (mRetired) {
+            // A retired receiver closes its own session, before it is
+            // reported as stopped to the pool.
+            this.resource.destroy();
+            pool.receiverRetired(this.resource);
+        }
+        synchronized (mIsStoppedLock) {
+            mIsRunning = false;
+            mIsStoppedLock.notifyAll();
+        }
     }
     /**
      * Indicates if this object has been stopped
@@ -182,6 +306,145 @@ public class SyncWorker implements Work {
             return mIsStopped;
         }
     }
+    /**
+     * Receives the next message, adapting to the load:
+     *   - while messages keep arriving, the backlog is drained with
+     *     receiveNoWait(),
+     *   - once it is drained, receive() blocks for MinReceiveTimeout,
+     *   - the timeout doubles with every empty receive, up to
+     *     MaxReceiveTimeout, so that idle receivers do not keep polling
+     *     the broker.
+     * A blocking receive is woken up by closing the receiver when the
+     * receiver is stopped.
+     */
+    private Message receive() throws JMSException {
+        Message m = null;
+        if (mBurst) {
+            m = receiveNoWait();
+        } else {
+            m = receive(mTimeout);
+        }
+
+        if (m != null) {
+            mBurst = true;
+            mTimeout = mMinTimeout;
+        } else if (mBurst) {
+            mBurst = false;
+        } else {
+            mTimeout = Math.min(mMaxTimeout, mTimeout * 2);
+        }
+        return m;
+    }
+
+    /**
+     * Blocking receive that can be woken up by wakeUp().
+     */
+    private Message receive(long timeout) throws JMSException {
+        jakarta.jms.MessageConsumer receiver = null;
+        synchronized (mIsStoppedLock) {
+            receiver = mReceiver;
+            if (mIsStopped || (receiver == null)) {
+                return null;
+            }
+            mInReceive = true;
+        }
+        try {
+            return receiver.receive(timeout);
+        } finally {
+            mInReceive = false;
+        }
+    }
+
+    private Message receiveNoWait() throws JMSException {
+        jakarta.jms.MessageConsumer receiver = null;
+        synchronized (mIsStoppedLock) {
+            receiver = mReceiver;
+        }
+        return (receiver == null) ? null : receiver.receiveNoWait();
+    }
+
+    /**
+     * Receives up to BatchSize messages, starting with the given one. Waits
+     * at most BatchTimeout for the batch to fill up.
+     */
+    private List<Message> collectBatch(Message first) throws JMSException {
+        List<Message> batch = new ArrayList<Message>(mBatchSize);
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mBatchTimeout);
+        while ((batch.size() < mBatchSize) && !mIsStopped) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            Message m = null;
+            try {
+                m = (remaining > 0) ? receive(remaining) : receiveNoWait();
+            } catch (JMSException e) {
+                if (!mIsStopped) {
+                    throw e;
+                }
+                // The receiver has been closed to wake it up, deliver the
+                // messages received so far.
+            }
+            if (m == null) {
+                break;
+            }
+            batch.add(m);
+        }
+        return batch;
+    }
+
+    /**
+     * Unblocks a receive in progress. Closing the MessageConsumer is the
+     * only way to do this that works with every provider. Must be called
+     * holding mIsStoppedLock, after mIsStopped has been set. The field is
+     * left to the receiving thread, which closes it again in close().
+     */
+    private void wakeUp() {
+        if (mInReceive && (mReceiver != null)) {
+            _logger.log(Level.FINE, "Waking up the receiver #" + sessionid);
+            try {
+                mReceiver.close();
+            } catch (JMSException e) {
+                _logger.log(Level.FINE, "Closing the receiver to wake it up failed : " + e);
+            }
+        }
+    }
+
+    /**
+     * Asks the receiver to stop after the message it is delivering, without
+     * waiting for it.
+     */
+    public void requestStop() {
+        synchronized (mIsStoppedLock) {
+            if (mIsRunning) {
+                mIsStopped = true;
+                wakeUp();
+                if (mPrefetch != null) {
+                    mPrefetch.requestStop();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the receiver has stopped or the deadline
+     * (System.nanoTime()) has passed. Returns true if it has stopped.
+     */
+    public boolean awaitStopped(long deadline) {
+        synchronized (mIsStoppedLock) {
+            while (mIsRunning) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(mIsStoppedLock, remaining);
+                } catch (InterruptedException ie) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     public void release() {
         synchronized (mIsStoppedLock) {
             if (mIsStopped) {
@@ -189,6 +452,10 @@ public class SyncWorker implements Work {
             }
             _logger.log(Level.FINE, "Stopping the receiver #" + sessionid);
             mIsStopped = true;
+            wakeUp();
+            if (mPrefetch != null) {
+                mPrefetch.requestStop();
+            }
             try {
                 mIsStoppedLock.wait(WAIT_TIMEOUT);
             }catch (InterruptedException ie) {
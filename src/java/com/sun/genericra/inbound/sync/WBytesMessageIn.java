@@ -12,6 +12,7 @@ package com.sun.genericra.inbound.sync;
 
 import jakarta.jms.BytesMessage;
 import jakarta.jms.JMSException;
+import jakarta.jms.Message;
 
 /**
  * See WMessage
@@ -34,6 +35,14 @@ public class WBytesMessageIn extends WMessageIn implements BytesMessage {
         mDelegate = delegate;
     }
 
+    /**
+     * @see WMessageIn#reset(jakarta.jms.Message, AckHandler, int)
+     */
+    void reset(Message delegate, AckHandler ackHandler, int ibatch) {
+        super.reset(delegate, ackHandler, ibatch);
+        mDelegate = (BytesMessage) delegate;
+    }
+
     /**
      * @see jakarta.jms.BytesMessage#readBoolean()
      */
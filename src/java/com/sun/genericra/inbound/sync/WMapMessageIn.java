@@ -11,6 +11,7 @@
 package com.sun.genericra.inbound.sync;
 
 import jakarta.jms.JMSException;
+import jakarta.jms.Message;
 import jakarta.jms.MapMessage;
 
 import java.util.Enumeration;
@@ -36,6 +37,14 @@ public class WMapMessageIn extends WMessageIn implements MapMessage {
         mDelegate = delegate;
     }
 
+    /**
+     * @see WMessageIn#reset(jakarta.jms.Message, AckHandler, int)
+     */
+    void reset(Message delegate, AckHandler ackHandler, int ibatch) {
+        super.reset(delegate, ackHandler, ibatch);
+        mDelegate = (MapMessage) delegate;
+    }
+
     /**
      * @see jakarta.jms.MapMessage#getBoolean(java.lang.String)
      */
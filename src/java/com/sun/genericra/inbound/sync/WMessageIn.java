@@ -23,6 +23,10 @@ import java.util.Enumeration;
  * setBooleanProperty() (for setting the rollbackOnly flag) and the acknowledge() 
  * method.
  * 
+ * The wrappers are reused for the following messages of the session (see
+ * WMessageInPool), so the endpoint must not use a message after its
+ * delivery has completed.
+ * 
  * @author Frank Kieviet
  * @version $Revision: 1.2 $
  */
@@ -33,6 +37,7 @@ public class WMessageIn implements Message {
     private int mBatchSize;
     private boolean mIsRollbackOnly;
     private boolean mIsAckCalled;
+    private volatile boolean mIsAckCompleted;
     
     /**
      * When used as a boolean property in setBooleanProperty() this sets the transaction
@@ -71,6 +76,31 @@ public class WMessageIn implements Message {
         mIBatch = iBatch;
     }
 
+    /**
+     * Makes the wrapper wrap another message, so that it can be reused.
+     * 
+     * @param delegate real msg
+     * @param ackHandler callback to call when ack() or recover() is called
+     * @param iBatch index of this message in a batch; -1 for non-batched
+     */
+    void reset(Message delegate, AckHandler ackHandler, int iBatch) {
+        mDelegate = delegate;
+        mAckHandler = ackHandler;
+        mIBatch = iBatch;
+        mBatchSize = 0;
+        mIsRollbackOnly = false;
+        mIsAckCalled = false;
+        mIsAckCompleted = false;
+    }
+    
+    /**
+     * True once acknowledge() has returned; the application is done with
+     * the message, and the wrapper can be reused.
+     */
+    boolean isAckCompleted() {
+        return mIsAckCompleted;
+    }
+    
     /**
      * @see com.stc.jmsjca.core.Unwrappable#getWrappedObject()
      */
@@ -89,6 +119,7 @@ public class WMessageIn implements Message {
      * @see jakarta.jms.Message#acknowledge()
      */
     public void acknowledge() throws JMSException {
+        Message delegate = mDelegate;
         if (mAckHandler != null) {
             if (mIsAckCalled) {
                 // ignore duplicate calls
@@ -97,7 +128,8 @@ public class WMessageIn implements Message {
                 mIsAckCalled = true;
             }
         } 
-        mDelegate.acknowledge();
+        delegate.acknowledge();
+        mIsAckCompleted = true;
     }
 
     /**
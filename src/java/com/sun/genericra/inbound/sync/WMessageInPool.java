@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.inbound.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.jms.BytesMessage;
+import jakarta.jms.JMSException;
+import jakarta.jms.MapMessage;
+import jakarta.jms.Message;
+import jakarta.jms.ObjectMessage;
+import jakarta.jms.StreamMessage;
+import jakarta.jms.TextMessage;
+
+
+/**
+ * Wrappers (WMessageIn) of the messages delivered by one SyncDeliveryHelper
+ * in HUA and batch mode. Instead of allocating a wrapper for every message,
+ * the wrappers of a delivery are reused for the following ones, once the
+ * delivery has completed.
+ *
+ * A wrapper is only reused if acknowledge() has returned on it: a message
+ * that was not acknowledged (eg: the AckTimeOut expired) may still be
+ * acknowledged later by the application, so its wrapper is left to the
+ * garbage collector.
+ *
+ * Not thread safe, there is one pool per helper, used by the thread that
+ * delivers the messages of the session.
+ */
+public class WMessageInPool {
+    private static final int TEXT = 0;
+    private static final int BYTES = 1;
+    private static final int MAP = 2;
+    private static final int OBJECT = 3;
+    private static final int STREAM = 4;
+    private static final int PLAIN = 5;
+
+    private List<List<WMessageIn>> free = new ArrayList<List<WMessageIn>>();
+    private List<WMessageIn> inUse = new ArrayList<WMessageIn>();
+
+    public WMessageInPool() {
+        for (int i = 0; i <= PLAIN; i++) {
+            free.add(new ArrayList<WMessageIn>());
+        }
+    }
+
+    /**
+     * Returns a wrapper for the given message, reusing a free wrapper of
+     * the same message type if there is one.
+     */
+    public WMessageIn wrap(Message toCopy, AckHandler ack, int iBatch, int batchSize)
+        throws JMSException {
+        if (toCopy instanceof WMessageIn) {
+            // Redelivery of a wrapped message
+            toCopy = (Message) ((WMessageIn) toCopy).getWrappedObject();
+        }
+        int type = typeOf(toCopy);
+        List<WMessageIn> list = free.get(type);
+        WMessageIn ret = null;
+        if (list.isEmpty()) {
+            ret = create(type, toCopy, ack, iBatch);
+        } else {
+            ret = list.remove(list.size() - 1);
+            ret.reset(toCopy, ack, iBatch);
+        }
+        ret.setBatchSize(batchSize);
+        inUse.add(ret);
+        return ret;
+    }
+
+    /**
+     * Called once the delivery of the wrapped messages has completed.
+     */
+    public void recycle() {
+        for (int i = 0; i < inUse.size(); i++) {
+            WMessageIn w = inUse.get(i);
+            if (w.isAckCompleted()) {
+                // Do not keep the message until the wrapper is reused
+                w.reset(null, null, -1);
+                free.get(typeOf(w)).add(w);
+            }
+        }
+        inUse.clear();
+    }
+
+    private static int typeOf(Message m) {
+        if (m instanceof TextMessage) {
+            return TEXT;
+        } else if (m instanceof BytesMessage) {
+            return BYTES;
+        } else if (m instanceof MapMessage) {
+            return MAP;
+        } else if (m instanceof ObjectMessage) {
+            return OBJECT;
+        } else if (m instanceof StreamMessage) {
+            return STREAM;
+        }
+        return PLAIN;
+    }
+
+    private static WMessageIn create(int type, Message m, AckHandler ack, int iBatch) {
+        switch (type) {
+        case TEXT:
+            return new WTextMessageIn((TextMessage) m, ack, iBatch);
+        case BYTES:
+            return new WBytesMessageIn((BytesMessage) m, ack, iBatch);
+        case MAP:
+            return new WMapMessageIn((MapMessage) m, ack, iBatch);
+        case OBJECT:
+            return new WObjectMessageIn((ObjectMessage) m, ack, iBatch);
+        case STREAM:
+            return new WStreamMessageIn((StreamMessage) m, ack, iBatch);
+        default:
+            return new WMessageIn(m, ack, iBatch);
+        }
+    }
+}
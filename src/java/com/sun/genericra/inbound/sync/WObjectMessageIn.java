@@ -11,6 +11,7 @@
 package com.sun.genericra.inbound.sync;
 
 import jakarta.jms.JMSException;
+import jakarta.jms.Message;
 import jakarta.jms.ObjectMessage;
 
 import java.io.Serializable;
@@ -36,6 +37,14 @@ public class WObjectMessageIn extends WMessageIn implements ObjectMessage {
         mDelegate = delegate;
     }
 
+    /**
+     * @see WMessageIn#reset(jakarta.jms.Message, AckHandler, int)
+     */
+    void reset(Message delegate, AckHandler ackHandler, int ibatch) {
+        super.reset(delegate, ackHandler, ibatch);
+        mDelegate = (ObjectMessage) delegate;
+    }
+
     /**
      * @see jakarta.jms.ObjectMessage#getObject()
      */
@@ -12,6 +12,7 @@ package com.sun.genericra.inbound.sync;
 
 import jakarta.jms.StreamMessage;
 import jakarta.jms.JMSException;
+import jakarta.jms.Message;
 
 /**
  * See WMessage
@@ -34,6 +35,14 @@ public class WStreamMessageIn extends WMessageIn implements StreamMessage {
         mDelegate = delegate;
     }
 
+    /**
+     * @see WMessageIn#reset(jakarta.jms.Message, AckHandler, int)
+     */
+    void reset(Message delegate, AckHandler ackHandler, int ibatch) {
+        super.reset(delegate, ackHandler, ibatch);
+        mDelegate = (StreamMessage) delegate;
+    }
+
     /**
      * @see jakarta.jms.StreamMessage#readByte()
      */
@@ -52,4 +52,27 @@ public class ConfigurationMonitor implements ConfigurationMonitorMBean {
         return ret;
     }  
     
+    /**
+     * Returns where the message delivery works are run.
+     */
+    public String getExecutionMode() {
+        return GenericJMSRA.getInstance().getExecutor().getMode();
+    }
+    
+    public int getActiveWorks() {
+        return GenericJMSRA.getInstance().getExecutor().getActiveWorks();
+    }
+    
+    public long getSubmittedWorks() {
+        return GenericJMSRA.getInstance().getExecutor().getSubmittedWorks();
+    }
+    
+    public long getCompletedWorks() {
+        return GenericJMSRA.getInstance().getExecutor().getCompletedWorks();
+    }
+    
+    public long getRejectedWorks() {
+        return GenericJMSRA.getInstance().getExecutor().getRejectedWorks();
+    }
+    
 }
@@ -27,5 +27,29 @@ public interface ConfigurationMonitorMBean {
      * Sets the log level of generic jms ra.
      */    
     String setLogLevel(String level);   
+    /**
+     * Returns where the message delivery works are run.
+     */
+    String getExecutionMode();
+    /**
+     * Returns the number of message delivery works being executed, -1 if
+     * the works run on the WorkManager.
+     */
+    int getActiveWorks();
+    /**
+     * Returns the number of message delivery works scheduled.
+     */
+    long getSubmittedWorks();
+    /**
+     * Returns the number of message delivery works completed, -1 if the
+     * works run on the WorkManager.
+     */
+    long getCompletedWorks();
+    /**
+     * Returns the number of message delivery works that were rejected.
+     * In DedicatedPool mode, these are the works that found all the
+     * threads busy and were scheduled on the WorkManager.
+     */
+    long getRejectedWorks();
 
 }
@@ -36,6 +36,34 @@ public class PoolStatistics {
     private static String CONNECTIONS_IN_USE = "No of connections being used ";
     
     private static String REQUESTS_WAITING = "No of requests waiting for resource";
+    
+    private static String TOTAL_WAITS = "No of requests that waited for resource";
+    
+    private static String AVERAGE_WAIT_TIME = "Average wait time for resource (ms)";
+    
+    private static String MAX_OBSERVED_WAIT_TIME = "Maximum wait time for resource (ms)";
+    
+    private static String WAIT_TIMEOUTS = "No of requests that timed out waiting for resource";
+    
+    private static String MIN_SIZE = "Minimum Size of the pool";
+    
+    private static String WARM_UP_TIME = "Time taken to pre-create the minimum pool (ms)";
+    
+    private static String IDLE_TIMEOUT = "Idle time after which a free resource is closed (ms)";
+    
+    private static String EVICTED_RESOURCES = "No of idle resources closed";
+    
+    private static String BACKPRESSURE_PAUSES = "No of times delivery was paused by backpressure";
+    
+    private static String BACKPRESSURE_TIME = "Time delivery was paused by backpressure (ms)";
+    
+    private static String DRAIN_TIME = "Time taken by the last drain of the pool (ms)";
+    
+    private static String ABANDONED_DELIVERIES = "No of deliveries abandoned by the last drain";
+    
+    private static String DEPLOYMENT_WAIT_TIME = "Time waited for the MDB deployment (ms)";
+    
+    private static String CONCURRENCY_LIMIT = "Current concurrency limit";
     private static String SEPARATOR = " : ";
     private static String NEW_LINE = "\n";
     
@@ -102,11 +130,64 @@ public class PoolStatistics {
         output.append(this.NEW_LINE);
         
         
+        output.append(this.CONCURRENCY_LIMIT);
+        output.append(this.SEPARATOR);
+        output.append(pool.getConcurrencyLimit());
+        if (pool.isAdaptiveConcurrency()) {
+            output.append(" (adaptive)");
+        }
+        output.append(this.NEW_LINE);
+        
+        output.append(this.MIN_SIZE);
+        output.append(this.SEPARATOR);
+        output.append(pool.getMinSize());
+        output.append(this.NEW_LINE);
+        
+        output.append(this.WARM_UP_TIME);
+        output.append(this.SEPARATOR);
+        output.append(pool.getWarmUpTime());
+        output.append(this.NEW_LINE);
+        
+        output.append(this.DEPLOYMENT_WAIT_TIME);
+        output.append(this.SEPARATOR);
+        output.append(pool.getDeploymentWaitTime());
+        output.append(this.NEW_LINE);
+        
         output.append(this.MAX_WAIT_TIME);
         output.append(this.SEPARATOR);
         output.append(this.getMaxWaitTime());
         output.append(this.NEW_LINE);
         
+        output.append(this.IDLE_TIMEOUT);
+        output.append(this.SEPARATOR);
+        output.append(pool.getIdleTimeout());
+        output.append(this.NEW_LINE);
+        
+        output.append(this.EVICTED_RESOURCES);
+        output.append(this.SEPARATOR);
+        output.append(pool.getEvictedResources());
+        output.append(this.NEW_LINE);
+        
+        output.append(this.DRAIN_TIME);
+        output.append(this.SEPARATOR);
+        output.append(pool.getDrainTime());
+        output.append(this.NEW_LINE);
+        
+        output.append(this.ABANDONED_DELIVERIES);
+        output.append(this.SEPARATOR);
+        output.append(pool.getAbandonedDeliveries());
+        output.append(this.NEW_LINE);
+        
+        output.append(this.BACKPRESSURE_PAUSES);
+        output.append(this.SEPARATOR);
+        output.append(pool.getBackpressurePauses());
+        output.append(this.NEW_LINE);
+        
+        output.append(this.BACKPRESSURE_TIME);
+        output.append(this.SEPARATOR);
+        output.append(pool.getBackpressureTime());
+        output.append(this.NEW_LINE);
+        
         output.append(this.CONNECTIONS_IN_USE);
         output.append(this.SEPARATOR);
         output.append(this.getConnections());
@@ -132,6 +213,26 @@ public class PoolStatistics {
         output.append(this.getWaiting());
         output.append(this.NEW_LINE);
         
+        output.append(this.TOTAL_WAITS);
+        output.append(this.SEPARATOR);
+        output.append(pool.getTotalWaits());
+        output.append(this.NEW_LINE);
+        
+        output.append(this.AVERAGE_WAIT_TIME);
+        output.append(this.SEPARATOR);
+        output.append(pool.getAverageWaitTime());
+        output.append(this.NEW_LINE);
+        
+        output.append(this.MAX_OBSERVED_WAIT_TIME);
+        output.append(this.SEPARATOR);
+        output.append(pool.getMaxObservedWaitTime());
+        output.append(this.NEW_LINE);
+        
+        output.append(this.WAIT_TIMEOUTS);
+        output.append(this.SEPARATOR);
+        output.append(pool.getWaitTimeouts());
+        output.append(this.NEW_LINE);
+        
         
         return output.toString();
     }
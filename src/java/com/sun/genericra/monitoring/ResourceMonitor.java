@@ -187,4 +187,181 @@ public class ResourceMonitor implements ResourceMonitorMBean {
         return  pool.getMaxWaitTime();
     }
     
+    public long getTotalWaits(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getTotalWaits();
+    }
+    
+    public long getAverageWaitTime(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getAverageWaitTime();
+    }
+    
+    public long getMaxObservedWaitTime(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getMaxObservedWaitTime();
+    }
+    
+    public long getWaitTimeouts(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getWaitTimeouts();
+    }
+    
+    public long getWarmUpTime(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getWarmUpTime();
+    }
+    
+    public long getDeploymentWaitTime(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getDeploymentWaitTime();
+    }
+    
+    public long getBackpressurePauses(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getBackpressurePauses();
+    }
+    
+    public long getBackpressureTime(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getBackpressureTime();
+    }
+    
+    public int getEmptyPollRatio(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getEmptyPollRatio();
+    }
+    
+    public int getActiveReceivers(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getActiveReceivers();
+    }
+    
+    public int getParkedReceivers(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getParkedReceivers();
+    }
+    
+    public long getDrainTime(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getDrainTime();
+    }
+    
+    public int getAbandonedDeliveries(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getAbandonedDeliveries();
+    }
+    
+    public long getEvictedResources(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getEvictedResources();
+    }
+    
+    public int getConcurrencyLimit(String appname) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        return pool.getConcurrencyLimit();
+    }
+    
+    public int setConcurrencyLimit(String appname, int limit) {
+        if (!validate(appname)) {
+            return -1;
+        }
+        AbstractJmsResourcePool pool = getPool(appname);
+        if (pool == null) {
+            return -2;
+        }
+        pool.setConcurrencyLimit(limit);
+        return pool.getConcurrencyLimit();
+    }
+    
 }
@@ -79,4 +79,140 @@ public interface ResourceMonitorMBean {
      */
     long getMaxWaitTime(String name) ;    
     
+    /**
+     * Returns the number of requests that had to wait for a resource.
+     *
+     * @param endpoint name.
+     * @return number of waits.
+     */
+    long getTotalWaits(String name);
+    
+    /**
+     * Returns the average time spent waiting for a resource.
+     *
+     * @param endpoint name.
+     * @return average wait time in milliseconds.
+     */
+    long getAverageWaitTime(String name);
+    
+    /**
+     * Returns the longest time spent waiting for a resource.
+     *
+     * @param endpoint name.
+     * @return max observed wait time in milliseconds.
+     */
+    long getMaxObservedWaitTime(String name);
+    
+    /**
+     * Returns the number of requests that timed out waiting for a resource.
+     *
+     * @param endpoint name.
+     * @return number of timeouts.
+     */
+    long getWaitTimeouts(String name);
+    
+    /**
+     * Returns the time taken to pre-create MinPoolSize resources.
+     *
+     * @param endpoint name.
+     * @return warm-up time in milliseconds, -1 if not warmed up.
+     */
+    long getWarmUpTime(String name);
+    
+    /**
+     * Returns the time waited for the MDB deployment to complete.
+     *
+     * @param endpoint name.
+     * @return deployment wait time in milliseconds.
+     */
+    long getDeploymentWaitTime(String name);
+    
+    /**
+     * Returns the number of times message delivery was paused by
+     * backpressure.
+     *
+     * @param endpoint name.
+     * @return number of pauses.
+     */
+    long getBackpressurePauses(String name);
+    
+    /**
+     * Returns the total time message delivery was paused by backpressure.
+     *
+     * @param endpoint name.
+     * @return time paused in milliseconds.
+     */
+    long getBackpressureTime(String name);
+    
+    /**
+     * Returns the percentage of receives of a sync endpoint that did not
+     * return a message.
+     *
+     * @param endpoint name.
+     * @return empty poll ratio in percent.
+     */
+    int getEmptyPollRatio(String name);
+    
+    /**
+     * Returns the number of receivers of a sync endpoint that are allowed
+     * to receive messages.
+     *
+     * @param endpoint name.
+     * @return active receivers.
+     */
+    int getActiveReceivers(String name);
+    
+    /**
+     * Returns the number of receivers of a sync endpoint that are parked
+     * by the concurrency limit.
+     *
+     * @param endpoint name.
+     * @return parked receivers.
+     */
+    int getParkedReceivers(String name);
+    
+    /**
+     * Returns the time taken by the last drain of the pool, when it was
+     * stopped (eg: for a reconnect).
+     *
+     * @param endpoint name.
+     * @return drain time in milliseconds.
+     */
+    long getDrainTime(String name);
+    
+    /**
+     * Returns the number of deliveries abandoned by the last drain of the
+     * pool.
+     *
+     * @param endpoint name.
+     * @return number of abandoned deliveries.
+     */
+    int getAbandonedDeliveries(String name);
+    
+    /**
+     * Returns the number of idle resources closed by the pool.
+     *
+     * @param endpoint name.
+     * @return number of evicted resources.
+     */
+    long getEvictedResources(String name);
+    
+    /**
+     * Returns the number of resources the endpoint may currently use
+     * concurrently.
+     *
+     * @param endpoint name.
+     * @return concurrency limit.
+     */
+    int getConcurrencyLimit(String name);
+    
+    /**
+     * Overrides the concurrency limit of the endpoint. A limit of zero or
+     * less gives the control back to the pool (adaptive or MaxPoolSize).
+     *
+     * @param endpoint name.
+     * @param limit new limit.
+     * @return the concurrency limit now in effect.
+     */
+    int setConcurrencyLimit(String name, int limit);
 }
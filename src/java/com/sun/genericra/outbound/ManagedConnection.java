@@ -11,6 +11,7 @@
 package com.sun.genericra.outbound;
 
 import com.sun.genericra.GenericJMSRA;
+import com.sun.genericra.ResourceManagerCache;
 import com.sun.genericra.util.Constants;
 import com.sun.genericra.util.ExceptionUtils;
 import com.sun.genericra.util.LogUtils;
@@ -238,6 +239,7 @@ public class ManagedConnection implements jakarta.resource.spi.ManagedConnection
                 this.physicalXASession.close();
             }
 
+            ResourceManagerCache.getInstance().remove(physicalJMSCon);
             physicalJMSCon.close();
             physicalJMSCon = null;
         } catch (JMSException e) {
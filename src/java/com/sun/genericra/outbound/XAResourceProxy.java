@@ -11,7 +11,6 @@
 package com.sun.genericra.outbound;
 
 import com.sun.genericra.AbstractXAResourceType;
-import com.sun.genericra.XAResourceType;
 import com.sun.genericra.util.ExceptionUtils;
 import com.sun.genericra.util.LogUtils;
 
@@ -131,19 +130,7 @@ public class XAResourceProxy extends AbstractXAResourceType {
      * @return true if it's the same RM instance; otherwise false.
      */
     public boolean isSameRM(XAResource xares) throws XAException {
-        XAResource inxa = xares;
-        if (xares instanceof XAResourceType) {
-            XAResourceType wrapper = (XAResourceType) xares;
-            inxa = (XAResource) wrapper.getWrappedObject();
-            
-            if (!compare(wrapper)) {
-                debug("isSameRM returns(compare) : " + false);
-                
-                return false;
-            }
-        }
-        
-        boolean result = _getXAResource().isSameRM(inxa);
+        boolean result = isSameRM(_getXAResource(), xares);
         debug("isSameRM returns : " + result);
         
         return result;
@@ -104,4 +104,21 @@ public final class Constants {
         public static final String SEVERE = "severe";
         
     }
+
+    public class ExecutionMode {
+        /**
+         * Message delivery runs on the WorkManager of the container
+         */
+        public static final String WORK_MANAGER = "WorkManager";
+
+        /**
+         * Message delivery runs on virtual threads
+         */
+        public static final String VIRTUAL_THREADS = "VirtualThreads";
+
+        /**
+         * Message delivery runs on a thread pool owned by the RA
+         */
+        public static final String DEDICATED_POOL = "DedicatedPool";
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+
+package com.sun.genericra;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.resource.spi.work.Work;
+import jakarta.resource.spi.work.WorkManager;
+
+import junit.framework.TestCase;
+
+import com.sun.genericra.unit.Recorder;
+import com.sun.genericra.util.Constants;
+
+
+/**
+ * DedicatedPool mode of the WorkExecutor.
+ */
+public class TestWorkExecutor extends TestCase {
+    public void testBusyPoolFallsBackToWorkManager() throws Exception {
+        Recorder wm = new Recorder();
+        WorkExecutor executor = new WorkExecutor(Constants.ExecutionMode.DEDICATED_POOL,
+            1, wm.proxy(WorkManager.class));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(new NoopWork() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // done
+                    }
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // Not queued behind the busy thread
+            executor.execute(new NoopWork());
+            assertEquals(1, wm.count("scheduleWork"));
+            assertEquals(1, executor.getRejectedWorks());
+            assertEquals(2, executor.getSubmittedWorks());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    static class NoopWork implements Work {
+        public void run() {
+        }
+
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.inbound;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Calls seen by the provider through the inbound XA proxies, for the
+ * sequences of the transaction manager and the delivery helpers.
+ */
+public class TestInboundXAResourceProxy extends TestCase {
+    private static final int[] MODES = {
+        InboundXAResourceProxy.SIMPLE,
+        InboundXAResourceProxy.DELAYED,
+        InboundXAResourceProxy.FIRST
+    };
+    private static final String[] NAMES = { "SIMPLE", "DELAYED", "FIRST" };
+    private static final InboundXAResourceProxy FLAGS = new InboundXAResourceProxy(null);
+
+    private FakeXAResource xar = new FakeXAResource();
+    private Xid x1 = new FakeXid("x1");
+    private Xid x2 = new FakeXid("x2");
+
+    /**
+     * XAResource of the provider, which logs the branch operations.
+     */
+    static class FakeXAResource implements XAResource {
+        List<String> log = new ArrayList<String>();
+        boolean logging = true;
+        int calls = 0;
+
+        private void log(String s, Xid xid) {
+            calls++;
+            if (logging) {
+                log.add(s + " " + xid);
+            }
+        }
+
+        private void log(String s, Xid xid, int flags) {
+            calls++;
+            if (logging) {
+                log.add(s + " " + xid + " " + FLAGS.convertFlag(flags));
+            }
+        }
+
+        public void start(Xid xid, int flags) {
+            log("start", xid, flags);
+        }
+
+        public void end(Xid xid, int flags) {
+            log("end", xid, flags);
+        }
+
+        public int prepare(Xid xid) {
+            log("prepare", xid);
+            return XA_OK;
+        }
+
+        public void commit(Xid xid, boolean onePhase) {
+            log("commit", xid);
+        }
+
+        public void rollback(Xid xid) {
+            log("rollback", xid);
+        }
+
+        public void forget(Xid xid) {
+            log("forget", xid);
+        }
+
+        public Xid[] recover(int flag) {
+            return new Xid[0];
+        }
+
+        public boolean isSameRM(XAResource xares) {
+            return xares == this;
+        }
+
+        public int getTransactionTimeout() {
+            return 0;
+        }
+
+        public boolean setTransactionTimeout(int seconds) {
+            return true;
+        }
+    }
+
+    static class FakeXid implements Xid {
+        private String name;
+
+        FakeXid(String name) {
+            this.name = name;
+        }
+
+        public int getFormatId() {
+            return 1;
+        }
+
+        public byte[] getGlobalTransactionId() {
+            return name.getBytes();
+        }
+
+        public byte[] getBranchQualifier() {
+            return new byte[0];
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    private InboundXAResourceProxy proxy(int mode) {
+        switch (mode) {
+        case InboundXAResourceProxy.SIMPLE:
+            return new SimpleXAResourceProxy(xar);
+        case InboundXAResourceProxy.FIRST:
+            return new FirstXAResourceProxy(xar);
+        default:
+            return new InboundXAResourceProxy(xar);
+        }
+    }
+
+    private void assertLog(String... expected) {
+        assertEquals(Arrays.asList(expected), xar.log);
+    }
+
+    /**
+     * Successful delivery of a message in the transaction xid, the delivery
+     * helpers starting the delayed branch once the endpoint has returned.
+     */
+    private static void deliver(InboundXAResourceProxy p, Xid xid) throws XAException {
+        p.start(xid, XAResource.TMNOFLAGS);
+        p.startDelayedXA();
+        p.setToRollback(true);
+        p.end(xid, XAResource.TMSUCCESS);
+        p.prepare(xid);
+        p.commit(xid, false);
+    }
+
+    /**
+     * Failed delivery attempt in the transaction xid, rolled back by the TM.
+     */
+    private static void fail(InboundXAResourceProxy p, Xid xid) throws XAException {
+        p.start(xid, XAResource.TMNOFLAGS);
+        p.setToRollback(false);
+        p.end(xid, XAResource.TMSUCCESS);
+        p.rollback(xid);
+    }
+
+    public void testDeliverySuccess() throws Exception {
+        for (int i = 0; i < MODES.length; i++) {
+            xar.log.clear();
+            deliver(proxy(MODES[i]), x1);
+            assertLog("start x1 TMNOFLAGS", "end x1 TMSUCCESS", "prepare x1", "commit x1");
+        }
+    }
+
+    public void testProxyIsReusedAfterReset() throws Exception {
+        for (int i = 0; i < MODES.length; i++) {
+            InboundXAResourceProxy p = proxy(MODES[i]);
+            deliver(p, x1);
+            xar.log.clear();
+            p.reset();
+
+            deliver(p, x2);
+
+            assertLog("start x2 TMNOFLAGS", "end x2 TMSUCCESS", "prepare x2", "commit x2");
+        }
+    }
+
+    public void testSimpleRollsBackFailedDelivery() throws Exception {
+        InboundXAResourceProxy p = proxy(InboundXAResourceProxy.SIMPLE);
+        p.start(x1, XAResource.TMNOFLAGS);
+        p.end(x1, XAResource.TMFAIL);
+        p.rollback(x1);
+
+        assertLog("start x1 TMNOFLAGS", "end x1 TMFAIL", "rollback x1");
+    }
+
+    public void testSimpleStartDelayedXAIsIgnored() throws Exception {
+        InboundXAResourceProxy p = proxy(InboundXAResourceProxy.SIMPLE);
+        p.startDelayedXA();
+        p.start(x1, XAResource.TMNOFLAGS);
+        p.startDelayedXA();
+
+        assertLog("start x1 TMNOFLAGS");
+    }
+
+    /**
+     * The failed attempt is never started with the provider, the message is
+     * consumed in the branch of the redelivery.
+     */
+    public void testDelayedRedeliveryUsesLastTransaction() throws Exception {
+        InboundXAResourceProxy p = proxy(InboundXAResourceProxy.DELAYED);
+        fail(p, x1);
+        deliver(p, x2);
+
+        assertLog("start x2 TMNOFLAGS", "end x2 TMSUCCESS", "prepare x2", "commit x2");
+    }
+
+    /**
+     * The redelivery happens in the branch of the first attempt.
+     */
+    public void testFirstRedeliveryUsesFirstTransaction() throws Exception {
+        InboundXAResourceProxy p = proxy(InboundXAResourceProxy.FIRST);
+        fail(p, x1);
+        deliver(p, x2);
+
+        assertLog("start x1 TMNOFLAGS", "end x1 TMSUCCESS", "prepare x1", "commit x1");
+    }
+
+    public void testFirstJoinsBranchAfterRollback() throws Exception {
+        InboundXAResourceProxy p = proxy(InboundXAResourceProxy.FIRST);
+        p.start(x1, XAResource.TMNOFLAGS);
+        p.setToRollback(false);
+        p.rollback(x1);
+        p.start(x2, XAResource.TMNOFLAGS);
+
+        assertLog("start x1 TMNOFLAGS", "start x1 TMJOIN");
+    }
+
+    public void testFirstResumesSuspendedBranchAfterRollback() throws Exception {
+        InboundXAResourceProxy p = proxy(InboundXAResourceProxy.FIRST);
+        p.start(x1, XAResource.TMNOFLAGS);
+        p.end(x1, XAResource.TMSUSPEND);
+        p.setToRollback(false);
+        p.rollback(x1);
+        p.start(x2, XAResource.TMNOFLAGS);
+
+        assertLog("start x1 TMNOFLAGS", "end x1 TMSUSPEND", "start x1 TMRESUME");
+    }
+
+    public void testFirstKeepsFlagsWithoutRollback() throws Exception {
+        InboundXAResourceProxy p = proxy(InboundXAResourceProxy.FIRST);
+        p.start(x1, XAResource.TMNOFLAGS);
+        p.start(x2, XAResource.TMNOFLAGS);
+        p.end(x1, XAResource.TMSUSPEND);
+        p.start(x2, XAResource.TMNOFLAGS);
+
+        assertLog("start x1 TMNOFLAGS", "start x1 TMNOFLAGS", "end x1 TMSUSPEND",
+            "start x1 TMNOFLAGS");
+    }
+
+    public void testSuspendResume() throws Exception {
+        String[][] expected = {
+            { "start x1 TMNOFLAGS", "end x1 TMSUSPEND", "start x1 TMRESUME",
+              "end x1 TMSUCCESS", "prepare x1", "commit x1" },
+            // The suspension happens before the delayed start
+            { "start x1 TMNOFLAGS", "end x1 TMSUCCESS", "prepare x1", "commit x1" },
+            { "start x1 TMNOFLAGS", "end x1 TMSUSPEND", "start x1 TMRESUME",
+              "end x1 TMSUCCESS", "prepare x1", "commit x1" },
+        };
+        for (int i = 0; i < MODES.length; i++) {
+            xar.log.clear();
+            InboundXAResourceProxy p = proxy(MODES[i]);
+            p.start(x1, XAResource.TMNOFLAGS);
+            p.end(x1, XAResource.TMSUSPEND);
+            p.start(x1, XAResource.TMRESUME);
+            p.startDelayedXA();
+            p.end(x1, XAResource.TMSUCCESS);
+            p.prepare(x1);
+            p.commit(x1, false);
+
+            assertLog(expected[i]);
+        }
+    }
+
+    /**
+     * The delivery attempts are exhausted: the helper starts the branch
+     * and moves the message to the DMD in it, without passing the XID.
+     */
+    public void testDeadMessageDestination() throws Exception {
+        for (int i = 0; i < MODES.length; i++) {
+            xar.log.clear();
+            InboundXAResourceProxy p = proxy(MODES[i]);
+            p.start(x1, XAResource.TMNOFLAGS);
+            p.setToRollback(false);
+            p.startDelayedXA();
+            if (!p.endCalled()) {
+                p.end(null, XAResource.TMSUCCESS);
+            }
+            p.prepare(null);
+            p.commit(null, false);
+
+            assertLog("start x1 TMNOFLAGS", "end x1 TMSUCCESS", "prepare x1", "commit x1");
+        }
+    }
+
+    public void testDeadMessageDestinationAfterEnd() throws Exception {
+        InboundXAResourceProxy p = proxy(InboundXAResourceProxy.SIMPLE);
+        p.start(x1, XAResource.TMNOFLAGS);
+        p.setToRollback(false);
+        p.end(x1, XAResource.TMSUCCESS);
+        p.rollback(x1);
+        p.end(null, XAResource.TMSUCCESS);
+        p.prepare(null);
+        p.commit(null, false);
+
+        assertLog("start x1 TMNOFLAGS", "end x1 TMSUCCESS", "prepare x1", "commit x1");
+    }
+
+    /**
+     * Time per transaction through each proxy, against the same calls made
+     * directly on the provider XAResource.
+     */
+    public void testOverhead() throws Exception {
+        int n = 200000;
+        xar.logging = false;
+        long direct = Long.MAX_VALUE;
+        long[] proxied = new long[MODES.length];
+        Arrays.fill(proxied, Long.MAX_VALUE);
+        // Best of a few rounds, the first ones warm up the JIT
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int k = 0; k < n; k++) {
+                xar.start(x1, XAResource.TMNOFLAGS);
+                xar.end(x1, XAResource.TMSUCCESS);
+                xar.prepare(x1);
+                xar.commit(x1, false);
+            }
+            direct = Math.min(direct, System.nanoTime() - start);
+            for (int i = 0; i < MODES.length; i++) {
+                InboundXAResourceProxy p = proxy(MODES[i]);
+                int calls = xar.calls;
+                start = System.nanoTime();
+                for (int k = 0; k < n; k++) {
+                    p.reset();
+                    deliver(p, x1);
+                }
+                proxied[i] = Math.min(proxied[i], System.nanoTime() - start);
+                // No extra round trip to the provider
+                assertEquals(4 * n, xar.calls - calls);
+            }
+        }
+        System.out.println("Inbound XA overhead, ns per transaction (" + n + " transactions)");
+        System.out.println(String.format("  %-7s : %d", "direct", direct / n));
+        for (int i = 0; i < MODES.length; i++) {
+            System.out.println(String.format("  %-7s : %d (+%d)", NAMES[i],
+                proxied[i] / n, (proxied[i] - direct) / n));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.inbound;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.xa.XAResource;
+
+import junit.framework.TestCase;
+
+import com.sun.genericra.unit.FakeContainer;
+import com.sun.genericra.unit.FakeProvider;
+import com.sun.genericra.unit.Recorder;
+
+
+/**
+ * XAResources of the inactive endpoints, opened for crash recovery.
+ */
+public class TestRecoveryRegistry extends TestCase {
+    private FakeContainer container;
+    private FakeProvider provider;
+    private RecoveryRegistry registry;
+    private ActivationSpec spec;
+    private CountDownLatch opening = new CountDownLatch(1);
+    private CountDownLatch release = new CountDownLatch(1);
+
+    protected void setUp() throws Exception {
+        provider = FakeProvider.reset();
+        container = new FakeContainer();
+        registry = new RecoveryRegistry(container.getResourceAdapter());
+        spec = container.createActivationSpec();
+        spec.setSupportsXA(true);
+    }
+
+    protected void tearDown() throws Exception {
+        release.countDown();
+        registry.close();
+        container.stop();
+    }
+
+    /**
+     * Makes the opening of the connections wait for release.
+     */
+    private void blockOpening() {
+        final Recorder.Answer createXASession =
+            provider.getConnectionRecorder().answerOf("createXASession");
+        provider.getConnectionRecorder().on("createXASession", new Recorder.Answer() {
+            public Object answer(Object[] args) throws Throwable {
+                opening.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return createXASession.answer(args);
+            }
+        });
+    }
+
+    /**
+     * Runs a recovery scan in another thread.
+     */
+    private Thread scan(final XAResource[][] result) {
+        Thread t = new Thread() {
+            public void run() {
+                result[0] = registry.getXAResources(new ActivationSpec[] { spec },
+                    new ArrayList<AbstractConsumer>());
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    public void testConnectionIsKeptForNextScan() throws Exception {
+        XAResource[] first = registry.getXAResources(new ActivationSpec[] { spec },
+            new ArrayList<AbstractConsumer>());
+        XAResource[] second = registry.getXAResources(new ActivationSpec[] { spec },
+            new ArrayList<AbstractConsumer>());
+
+        assertEquals(1, first.length);
+        assertSame(first[0], second[0]);
+        assertEquals(1, provider.getConnectionRecorder().count("createXASession"));
+    }
+
+    public void testOverlappingScansOpenOneConnection() throws Exception {
+        blockOpening();
+        XAResource[][] first = new XAResource[1][];
+        XAResource[][] second = new XAResource[1][];
+        Thread t1 = scan(first);
+        assertTrue(opening.await(10, TimeUnit.SECONDS));
+        Thread t2 = scan(second);
+        Thread.sleep(100);
+
+        release.countDown();
+        t1.join(10000);
+        t2.join(10000);
+
+        assertEquals(1, provider.getConnectionRecorder().count("createXASession"));
+        assertEquals(1, first[0].length);
+        assertEquals(1, second[0].length);
+        assertSame(first[0][0], second[0][0]);
+        assertEquals(0, provider.getConnectionRecorder().count("close"));
+    }
+
+    public void testConnectionOpenedAfterCloseIsClosed() throws Exception {
+        blockOpening();
+        XAResource[][] result = new XAResource[1][];
+        Thread t = scan(result);
+        assertTrue(opening.await(10, TimeUnit.SECONDS));
+
+        registry.close();
+        release.countDown();
+        t.join(10000);
+
+        assertEquals(0, result[0].length);
+        assertEquals(1, provider.getConnectionRecorder().count("close"));
+    }
+
+    public void testKeyDoesNotHoldPassword() throws Exception {
+        spec.setUserName("guest");
+        spec.setPassword("secret");
+        String key = RecoveryRegistry.keyOf(spec);
+
+        assertEquals(-1, key.indexOf("secret"));
+        assertEquals(key, RecoveryRegistry.keyOf(spec));
+        spec.setPassword("other");
+        assertFalse(key.equals(RecoveryRegistry.keyOf(spec)));
+    }
+}
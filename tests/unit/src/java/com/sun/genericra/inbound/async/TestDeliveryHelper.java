@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.inbound.async;
+
+import jakarta.jms.Message;
+import jakarta.transaction.Transaction;
+import jakarta.transaction.TransactionManager;
+
+import junit.framework.TestCase;
+
+import com.sun.genericra.inbound.ActivationSpec;
+import com.sun.genericra.inbound.sync.TxMgr;
+import com.sun.genericra.unit.FakeContainer;
+import com.sun.genericra.unit.FakeProvider;
+import com.sun.genericra.unit.FakeSession;
+import com.sun.genericra.unit.Recorder;
+
+
+/**
+ * Completion of the session of a non-XA delivery, and transactions of
+ * several messages (TransactionBatchSize).
+ */
+public class TestDeliveryHelper extends TestCase {
+    private FakeContainer container;
+    private FakeProvider provider;
+    private EndpointConsumer consumer;
+
+    protected void setUp() throws Exception {
+        provider = FakeProvider.reset();
+        container = new FakeContainer();
+    }
+
+    protected void tearDown() throws Exception {
+        TxMgr.setUnitTestTxMgr(null);
+        if (consumer != null) {
+            consumer.stop();
+        }
+        container.stop();
+    }
+
+    /**
+     * Delivers one message through a ServerSession of the endpoint and
+     * returns its session.
+     */
+    private FakeSession deliver(boolean localTransacted) throws Exception {
+        ActivationSpec spec = container.createActivationSpec();
+        spec.setLocalTransacted(localTransacted);
+        spec.setRedeliveryAttempts(1);
+        start(spec);
+        return deliver(FakeProvider.message());
+    }
+
+    private void start(ActivationSpec spec) throws Exception {
+        spec.setMaxPoolSize(1);
+        consumer = new EndpointConsumer(container.getEndpointFactory(), spec);
+        consumer.start();
+    }
+
+    /**
+     * Delivers the message through a ServerSession of the started
+     * endpoint and returns its session.
+     */
+    private FakeSession deliver(Message m) throws Exception {
+        InboundJmsResource resource =
+            (InboundJmsResource) consumer.getPools().get(0).getServerSession();
+        FakeSession session = provider.sessionOf(resource.getSession());
+        session.load(m);
+        resource.start();
+        return session;
+    }
+
+    /**
+     * Runs a ServerSession of an XA endpoint with TransactionBatchSize 3,
+     * loaded with messages redelivered or not as given, and returns the
+     * number of transactions (beforeDelivery) used.
+     */
+    private int transactions(boolean... redelivered) throws Exception {
+        Recorder tm = new Recorder();
+        tm.returns("getTransaction", new Recorder().proxy(Transaction.class));
+        TxMgr.setUnitTestTxMgr(tm.proxy(TransactionManager.class));
+        container.setDeliveryTransacted(true);
+        ActivationSpec spec = container.createActivationSpec();
+        spec.setMaxPoolSize(1);
+        spec.setMaxMessagesPerSession(redelivered.length);
+        spec.setSupportsXA(true);
+        spec.setTransactionBatchSize(3);
+        consumer = new EndpointConsumer(container.getEndpointFactory(), spec);
+        consumer.start();
+        InboundJmsResource resource =
+            (InboundJmsResource) consumer.getPools().get(0).getServerSession();
+        FakeSession session = provider.sessionOf(resource.getSession());
+        for (boolean r : redelivered) {
+            Message m = FakeProvider.message();
+            m.setJMSRedelivered(r);
+            session.load(m);
+        }
+        container.getEndpointRecorder().clear();
+        resource.start();
+        assertEquals(redelivered.length, container.getEndpointRecorder().count("onMessage"));
+        return container.getEndpointRecorder().count("beforeDelivery");
+    }
+
+    public void testMessagesShareTransaction() throws Exception {
+        assertEquals(2, transactions(false, false, false, false));
+    }
+
+    /**
+     * The messages of a rolled back transaction come back redelivered,
+     * each of them gets a transaction of its own.
+     */
+    public void testRedeliveredMessageIsDeliveredAlone() throws Exception {
+        assertEquals(3, transactions(false, false, true, false));
+    }
+
+    public void testLocalTransactedCommitsDeliveredMessage() throws Exception {
+        FakeSession session = deliver(true);
+
+        assertEquals(1, container.getEndpointRecorder().count("onMessage"));
+        assertEquals(1, session.getRecorder().count("commit"));
+        assertEquals(0, session.getRecorder().count("rollback"));
+    }
+
+    public void testLocalTransactedRollsBackFailedDelivery() throws Exception {
+        container.getEndpointRecorder().fails("onMessage",
+            new RuntimeException("Fails on purpose"));
+
+        FakeSession session = deliver(true);
+
+        assertEquals(1, container.getEndpointRecorder().count("onMessage"));
+        assertEquals(0, session.getRecorder().count("commit"));
+        assertEquals(1, session.getRecorder().count("rollback"));
+    }
+
+    /**
+     * A message the endpoint always fails on is redelivered
+     * RedeliveryAttempts times, then committed away.
+     */
+    public void testLocalTransactedLimitsRedeliveries() throws Exception {
+        container.getEndpointRecorder().fails("onMessage",
+            new RuntimeException("Fails on purpose"));
+        ActivationSpec spec = container.createActivationSpec();
+        spec.setLocalTransacted(true);
+        spec.setRedeliveryAttempts(2);
+        start(spec);
+        Message m = FakeProvider.message("ID:1");
+
+        FakeSession session = null;
+        for (int i = 0; i < 3; i++) {
+            // The provider redelivers the message after each rollback
+            session = deliver(m);
+        }
+
+        assertEquals(3, container.getEndpointRecorder().count("onMessage"));
+        assertEquals(2, session.getRecorder().count("rollback"));
+        assertEquals(1, session.getRecorder().count("commit"));
+    }
+
+    public void testAutoAcknowledgeDoesNotCompleteSession() throws Exception {
+        container.getEndpointRecorder().fails("onMessage",
+            new RuntimeException("Fails on purpose"));
+
+        FakeSession session = deliver(false);
+
+        assertEquals(0, session.getRecorder().count("commit"));
+        assertEquals(0, session.getRecorder().count("rollback"));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+
+package com.sun.genericra.inbound.async;
+
+import jakarta.jms.Message;
+
+import junit.framework.TestCase;
+
+import com.sun.genericra.inbound.ActivationSpec;
+import com.sun.genericra.unit.FakeContainer;
+import com.sun.genericra.unit.FakeProvider;
+import com.sun.genericra.unit.FakeSession;
+
+
+/**
+ * A ServerSession keeps its MessageListener and DeliveryHelper from one
+ * checkout to the next; the helper is reset by getServerSession().
+ */
+public class TestInboundJmsResource extends TestCase {
+    private FakeContainer container;
+    private FakeProvider provider;
+    private EndpointConsumer consumer;
+    private InboundJmsResourcePool pool;
+
+    protected void setUp() throws Exception {
+        provider = FakeProvider.reset();
+        container = new FakeContainer();
+        ActivationSpec spec = container.createActivationSpec();
+        spec.setMaxPoolSize(1);
+        consumer = new EndpointConsumer(container.getEndpointFactory(), spec);
+        consumer.start();
+        pool = consumer.getPools().get(0);
+    }
+
+    protected void tearDown() throws Exception {
+        consumer.stop();
+        container.stop();
+    }
+
+    public void testListenerAndHelperAreReused() throws Exception {
+        InboundJmsResource first = (InboundJmsResource) pool.getServerSession();
+        FakeSession session = provider.sessionOf(first.getSession());
+        jakarta.jms.MessageListener listener = session.getMessageListener();
+        DeliveryHelper helper = first.getDeliveryHelper();
+        assertNotNull(listener);
+        assertNotNull(helper);
+
+        run(first, FakeProvider.message());
+        assertEquals(1, helper.delivered);
+
+        InboundJmsResource second = (InboundJmsResource) pool.getServerSession();
+        assertSame(first, second);
+        assertSame(listener, session.getMessageListener());
+        assertSame(helper, second.getDeliveryHelper());
+        assertEquals(1, session.getRecorder().count("setMessageListener"));
+        assertEquals(1, provider.getSessions().size());
+
+        // reset() by the checkout
+        assertEquals(0, helper.delivered);
+        assertNull(helper.msg);
+        run(second, FakeProvider.message());
+        assertEquals(2, container.getEndpointRecorder().count("onMessage"));
+    }
+
+    public void testHelperStateIsClearedAfterDMD() throws Exception {
+        InboundJmsResource resource = (InboundJmsResource) pool.getServerSession();
+        DeliveryHelper helper = resource.getDeliveryHelper();
+        helper.markForDMD();
+        resource.release();
+
+        pool.getServerSession();
+        assertFalse(helper.markedForDMD());
+    }
+
+    public void testEndpointGetsTheHelperXAResource() throws Exception {
+        InboundJmsResource resource = (InboundJmsResource) pool.getServerSession();
+        run(resource, FakeProvider.message());
+        resource = (InboundJmsResource) pool.getServerSession();
+        run(resource, FakeProvider.message());
+
+        // The first one was created by the deployment probe.
+        assertEquals(3, container.getEndpointXAResources().size());
+        assertSame(resource.getDeliveryHelper().getXAResource(),
+            container.getEndpointXAResources().get(1));
+        assertSame(resource.getDeliveryHelper().getXAResource(),
+            container.getEndpointXAResources().get(2));
+    }
+
+    /**
+     * Bytes allocated per ServerSession checkout (getServerSession() and
+     * release()), against the listener and helper that refreshListener()
+     * allocated on every checkout before they were reused. Best of a few
+     * rounds; the provider calls are left out, they are the same in both.
+     */
+    public void testCheckoutAllocation() throws Exception {
+        int n = 100000;
+        InboundJmsResource resource = (InboundJmsResource) pool.getServerSession();
+        resource.release();
+        Object[] sink = new Object[2];
+        long checkout = Long.MAX_VALUE;
+        long recreated = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long bytes = allocatedBytes();
+            for (int i = 0; i < n; i++) {
+                resource = (InboundJmsResource) pool.getServerSession();
+                resource.release();
+            }
+            checkout = Math.min(checkout, allocatedBytes() - bytes);
+
+            bytes = allocatedBytes();
+            for (int i = 0; i < n; i++) {
+                sink[0] = new MessageListener(resource, pool);
+                sink[1] = new DeliveryHelper(resource, pool);
+            }
+            recreated = Math.min(recreated, allocatedBytes() - bytes);
+        }
+        assertSame(resource, pool.getServerSession());
+        System.out.println("ServerSession checkout, bytes per checkout (" + n + " checkouts)");
+        System.out.println(String.format("  %-16s : %d", "reused", checkout / n));
+        System.out.println(String.format("  %-16s : %d", "saved", recreated / n));
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, -1 if the JVM does not
+     * tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+            java.lang.management.ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Runs the ServerSession the way the provider does, the work is
+     * executed in the calling thread.
+     */
+    private void run(InboundJmsResource resource, Message message) throws Exception {
+        provider.sessionOf(resource.getSession()).load(message);
+        resource.start();
+    }
+}
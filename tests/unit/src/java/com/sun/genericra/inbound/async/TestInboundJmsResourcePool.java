@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+
+package com.sun.genericra.inbound.async;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.jms.JMSException;
+import jakarta.resource.ResourceException;
+import jakarta.resource.spi.UnavailableException;
+
+import junit.framework.TestCase;
+
+import com.sun.genericra.inbound.ActivationSpec;
+import com.sun.genericra.unit.FakeContainer;
+import com.sun.genericra.unit.FakeProvider;
+import com.sun.genericra.unit.Recorder;
+
+
+/**
+ * ServerSession pool: deployment probe and backpressure.
+ */
+public class TestInboundJmsResourcePool extends TestCase {
+    private FakeContainer container;
+    private FakeProvider provider;
+    private ActivationSpec spec;
+    private EndpointConsumer consumer;
+
+    protected void setUp() throws Exception {
+        provider = FakeProvider.reset();
+        container = new FakeContainer();
+        spec = container.createActivationSpec();
+    }
+
+    protected void tearDown() throws Exception {
+        if (consumer != null) {
+            consumer.stop();
+        }
+        container.stop();
+    }
+
+    private InboundJmsResourcePool start() throws Exception {
+        consumer = new EndpointConsumer(container.getEndpointFactory(), spec);
+        consumer.start();
+        return consumer.getPools().get(0);
+    }
+
+    public void testConnectionsClosedWhenInitializeFails() throws Exception {
+        spec.setConnectionCount(3);
+        provider.failConnectionsAfter(2);
+        EndpointConsumer c = new EndpointConsumer(container.getEndpointFactory(), spec);
+
+        try {
+            c.start();
+            fail("Started without its third connection");
+        } catch (ResourceException e) {
+            // expected
+        }
+
+        assertEquals(2, provider.getConnectionRecorder().count("close"));
+        assertTrue(c.getPools().isEmpty());
+    }
+
+    public void testDeploymentNotCompletedWhileProbeFails() throws Exception {
+        Recorder factory = container.getFactoryRecorder();
+        Recorder.Answer success = factory.answerOf("createEndpoint");
+        factory.fails("createEndpoint", new IllegalStateException("not deployed"));
+        spec.setMDBDeploymentRetryAttempt(2);
+        InboundJmsResourcePool pool = start();
+
+        try {
+            pool.getServerSession();
+            fail("ServerSession handed out before the MDB is deployed");
+        } catch (JMSException e) {
+            // expected
+        }
+        assertEquals(-1, pool.getDeploymentWaitTime());
+        // Retried up to MDBDeploymentRetryAttempt times per probe
+        assertEquals(4, factory.count("createEndpoint"));
+
+        factory.on("createEndpoint", success);
+        assertNotNull(pool.getServerSession());
+        assertTrue(pool.getDeploymentWaitTime() >= 0);
+    }
+
+    public void testDeploymentProbeRetriesUnavailable() throws Exception {
+        final Recorder factory = container.getFactoryRecorder();
+        final Recorder.Answer success = factory.answerOf("createEndpoint");
+        factory.on("createEndpoint", new Recorder.Answer() {
+            public Object answer(Object[] args) throws Throwable {
+                if (factory.count("createEndpoint") == 1) {
+                    throw new UnavailableException("not deployed");
+                }
+                return success.answer(args);
+            }
+        });
+        spec.setMDBDeploymentRetryAttempt(2);
+        InboundJmsResourcePool pool = start();
+
+        assertNotNull(pool.getServerSession());
+        assertEquals(2, factory.count("createEndpoint"));
+    }
+
+    public void testResumedWhenBusyCountDropsToLowWaterMark() throws Exception {
+        spec.setMaxPoolSize(2);
+        spec.setBackpressureHighWaterMark(100);
+        spec.setBackpressureLowWaterMark(50);
+        InboundJmsResourcePool pool = start();
+        Recorder connection = provider.getConnectionRecorder();
+        connection.clear();
+
+        InboundJmsResource first = (InboundJmsResource) pool.getServerSession();
+        pool.getServerSession();
+        assertEquals(1, connection.count("stop"));
+
+        first.release();
+        assertEquals(1, connection.count("start"));
+    }
+
+    public void testBackpressureTimeReadWhileConnectionStops() throws Exception {
+        spec.setMaxPoolSize(1);
+        spec.setBackpressureHighWaterMark(100);
+        spec.setBackpressureLowWaterMark(0);
+        final InboundJmsResourcePool pool = start();
+        final CountDownLatch stopping = new CountDownLatch(1);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        provider.getConnectionRecorder().on("stop", new Recorder.Answer() {
+            public Object answer(Object[] args) throws Throwable {
+                stopping.countDown();
+                stopped.await();
+                return null;
+            }
+        });
+        Thread busy = new Thread() {
+            public void run() {
+                try {
+                    pool.getServerSession();
+                } catch (JMSException e) {
+                    // checked below
+                }
+            }
+        };
+        busy.start();
+        assertTrue(stopping.await(10, TimeUnit.SECONDS));
+
+        // Connection.stop() does not block the monitoring
+        Thread reader = new Thread() {
+            public void run() {
+                pool.getBackpressureTime();
+            }
+        };
+        reader.start();
+        reader.join(5000);
+        boolean blocked = reader.isAlive();
+        stopped.countDown();
+        busy.join(10000);
+        assertFalse(blocked);
+        assertEquals(1, pool.getBackpressurePauses());
+    }
+
+    public void testResumedWhenHandedOffBelowRaisedLimit() throws Exception {
+        spec.setMaxPoolSize(4);
+        spec.setBackpressureHighWaterMark(100);
+        spec.setBackpressureLowWaterMark(80);
+        final InboundJmsResourcePool pool = start();
+        pool.setConcurrencyLimit(2);
+        Recorder connection = provider.getConnectionRecorder();
+        connection.clear();
+
+        pool.getServerSession();
+        pool.getServerSession();
+        assertEquals(1, connection.count("stop"));
+
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    pool.getServerSession();
+                } catch (JMSException e) {
+                    // checked below
+                }
+            }
+        };
+        waiter.start();
+        while (pool.getWaiting() == 0) {
+            Thread.sleep(10);
+        }
+        // let the waiter queue itself
+        Thread.sleep(100);
+
+        // The new ServerSession is handed to the waiter, 3 busy of 4
+        pool.setConcurrencyLimit(4);
+        waiter.join(10000);
+        assertFalse(waiter.isAlive());
+        assertEquals(3, pool.getBusyResources());
+        assertEquals(1, connection.count("start"));
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.inbound.sync;
+
+import jakarta.jms.Message;
+import jakarta.jms.Session;
+
+import junit.framework.TestCase;
+
+import com.sun.genericra.inbound.ActivationSpec;
+import com.sun.genericra.unit.FakeContainer;
+import com.sun.genericra.unit.FakeProvider;
+import com.sun.genericra.unit.Recorder;
+import com.sun.genericra.util.Constants;
+
+
+/**
+ * Delivery and acknowledgement of prefetched messages.
+ */
+public class TestPrefetchBuffer extends TestCase {
+    private FakeContainer container;
+    private ActivationSpec spec;
+    private Recorder messages;
+    private PrefetchBuffer buffer;
+    private Session session;
+
+    protected void setUp() throws Exception {
+        FakeProvider.reset();
+        container = new FakeContainer();
+        // The delivery works run until the buffer is stopped
+        container.getResourceAdapter().setExecutionMode(
+            Constants.ExecutionMode.DEDICATED_POOL);
+        container.getResourceAdapter().setExecutionPoolSize(2);
+        spec = container.createActivationSpec();
+        spec.setPrefetchSize(3);
+        messages = new Recorder();
+    }
+
+    protected void tearDown() throws Exception {
+        if (buffer != null) {
+            buffer.stop();
+        }
+        container.stop();
+    }
+
+    private void startBuffer() throws Exception {
+        SyncConsumer consumer = new SyncConsumer(container.getEndpointFactory(), spec);
+        SyncJmsResourcePool pool = new SyncJmsResourcePool(consumer, false);
+        session = FakeProvider.current().getConnection().createSession(false,
+            Session.CLIENT_ACKNOWLEDGE);
+        buffer = new PrefetchBuffer(new SyncJmsResource(session, pool), 3, 1);
+        buffer.start();
+    }
+
+    private void failSecondMessage() {
+        final int[] n = new int[1];
+        container.getEndpointRecorder().on("onMessage", new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                synchronized (n) {
+                    if (++n[0] == 2) {
+                        throw new RuntimeException("Fails on purpose");
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Puts a full prefetch window into the buffer.
+     */
+    private void putWindow() throws Exception {
+        assertFalse(buffer.put(messages.proxy(Message.class)));
+        assertFalse(buffer.put(messages.proxy(Message.class)));
+        assertTrue(buffer.put(messages.proxy(Message.class)));
+    }
+
+    private Recorder sessionRecorder() {
+        return FakeProvider.current().sessionOf(session).getRecorder();
+    }
+
+    public void testWindowAcknowledgedOnceDelivered() throws Exception {
+        startBuffer();
+        putWindow();
+
+        buffer.acknowledge();
+
+        assertEquals(3, container.getEndpointRecorder().count("onMessage"));
+        assertEquals(1, messages.count("acknowledge"));
+        assertEquals(0, sessionRecorder().count("recover"));
+    }
+
+    public void testFailedMessageDroppedWithoutRedelivery() throws Exception {
+        failSecondMessage();
+        startBuffer();
+        putWindow();
+
+        buffer.acknowledge();
+
+        // RedeliveryAttempts is 0, the good messages are not delivered again
+        assertEquals(3, container.getEndpointRecorder().count("onMessage"));
+        assertEquals(1, messages.count("acknowledge"));
+        assertEquals(0, sessionRecorder().count("recover"));
+    }
+
+    public void testFailedMessageRedeliveredFromBuffer() throws Exception {
+        spec.setRedeliveryAttempts(1);
+        spec.setRedeliveryInterval(0);
+        failSecondMessage();
+        startBuffer();
+        putWindow();
+
+        buffer.acknowledge();
+
+        assertEquals(4, container.getEndpointRecorder().count("onMessage"));
+        assertEquals(1, messages.count("acknowledge"));
+        assertEquals(0, sessionRecorder().count("recover"));
+    }
+
+    public void testRedeliveriesLimitedByRedeliveryAttempts() throws Exception {
+        spec.setRedeliveryAttempts(2);
+        spec.setRedeliveryInterval(0);
+        final Message poison = new Recorder().proxy(Message.class);
+        container.getEndpointRecorder().on("onMessage", new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                if (args[0] == poison) {
+                    throw new RuntimeException("Fails on purpose");
+                }
+                return null;
+            }
+        });
+        startBuffer();
+        assertFalse(buffer.put(messages.proxy(Message.class)));
+        assertFalse(buffer.put(poison));
+        assertTrue(buffer.put(messages.proxy(Message.class)));
+
+        buffer.acknowledge();
+
+        // The poison message 3 times, the others once
+        assertEquals(5, container.getEndpointRecorder().count("onMessage"));
+        assertEquals(1, messages.count("acknowledge"));
+        assertEquals(0, sessionRecorder().count("recover"));
+
+        // The next window is delivered and acknowledged
+        putWindow();
+        buffer.acknowledge();
+        assertEquals(8, container.getEndpointRecorder().count("onMessage"));
+        assertEquals(2, messages.count("acknowledge"));
+    }
+
+    public void testWindowNotAcknowledgedOnStopDuringRedelivery() throws Exception {
+        spec.setRedeliveryAttempts(5);
+        spec.setRedeliveryInterval(60);
+        failSecondMessage();
+        startBuffer();
+        assertFalse(buffer.put(messages.proxy(Message.class)));
+        assertFalse(buffer.put(messages.proxy(Message.class)));
+        while (container.getEndpointRecorder().count("onMessage") < 2) {
+            Thread.sleep(10);
+        }
+
+        buffer.stop();
+        buffer = null;
+
+        // Redelivered by the provider with the whole window
+        assertEquals(0, messages.count("acknowledge"));
+        assertEquals(2, container.getEndpointRecorder().count("onMessage"));
+    }
+
+    public void testEndpointReusedUpToReuseCount() throws Exception {
+        spec.setEndpointReuseCount(2);
+        startBuffer();
+        putWindow();
+
+        buffer.acknowledge();
+
+        assertEquals(2, container.getFactoryRecorder().count("createEndpoint"));
+    }
+
+    public void testEndpointReleasedAfterFailedDelivery() throws Exception {
+        spec.setEndpointReuseCount(10);
+        failSecondMessage();
+        startBuffer();
+        putWindow();
+
+        buffer.acknowledge();
+
+        assertEquals(2, container.getFactoryRecorder().count("createEndpoint"));
+    }
+}
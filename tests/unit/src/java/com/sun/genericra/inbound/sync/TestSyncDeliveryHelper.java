@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.inbound.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.jms.Destination;
+import jakarta.jms.Message;
+import jakarta.jms.MessageProducer;
+import jakarta.jms.XAConnection;
+import jakarta.jms.XASession;
+import jakarta.transaction.InvalidTransactionException;
+import jakarta.transaction.Transaction;
+import jakarta.transaction.TransactionManager;
+
+import junit.framework.TestCase;
+
+import com.sun.genericra.inbound.ActivationSpec;
+import com.sun.genericra.unit.FakeContainer;
+import com.sun.genericra.unit.FakeDestination;
+import com.sun.genericra.unit.FakeProvider;
+import com.sun.genericra.unit.Recorder;
+
+
+/**
+ * Delivery of the synchronous consumer, with a fake transaction manager.
+ */
+public class TestSyncDeliveryHelper extends TestCase {
+    private FakeContainer container;
+    private Recorder tm;
+    private Recorder tx;
+
+    protected void setUp() throws Exception {
+        FakeProvider.reset();
+        container = new FakeContainer();
+        tx = new Recorder();
+        tm = new Recorder();
+        tm.returns("getTransaction", tx.proxy(Transaction.class));
+        TxMgr.setUnitTestTxMgr(tm.proxy(TransactionManager.class));
+    }
+
+    protected void tearDown() throws Exception {
+        TxMgr.setUnitTestTxMgr(null);
+        container.stop();
+    }
+
+    /**
+     * Creates the resource of one session of a transacted pool, with an
+     * endpoint ready for delivery.
+     */
+    private SyncJmsResource createResource(ActivationSpec spec) throws Exception {
+        return createResource(spec, true);
+    }
+
+    private SyncJmsResource createResource(ActivationSpec spec, boolean transacted)
+        throws Exception {
+        container.setDeliveryTransacted(transacted);
+        SyncConsumer consumer = new SyncConsumer(container.getEndpointFactory(), spec);
+        SyncJmsResourcePool pool = new SyncJmsResourcePool(consumer, transacted);
+        XAConnection con = (XAConnection) FakeProvider.current().getConnection();
+        XASession session = con.createXASession();
+        SyncJmsResource resource = new SyncJmsResource(session, pool,
+                session.getXAResource());
+        resource.refreshListener();
+        resource.refresh();
+        return resource;
+    }
+
+    private static List<Message> batch(int size) {
+        List<Message> messages = new ArrayList<Message>();
+        for (int i = 0; i < size; i++) {
+            messages.add(FakeProvider.message());
+        }
+        return messages;
+    }
+
+    /**
+     * Resource of a non-XA pool in HUA mode, whose endpoint runs the given
+     * answer for each message.
+     */
+    private SyncJmsResource createHUAResource(int ackTimeOut, Recorder.Answer onMessage)
+        throws Exception {
+        ActivationSpec spec = container.createActivationSpec();
+        spec.setHUAMode(true);
+        spec.setAckTimeOut(ackTimeOut);
+        container.getEndpointRecorder().on("onMessage", onMessage);
+        return createResource(spec, false);
+    }
+
+    private Recorder sessionRecorder(SyncJmsResource resource) {
+        return FakeProvider.current().sessionOf(resource.getSession()).getRecorder();
+    }
+
+    public void testBatchCommittedWhenDelivered() throws Exception {
+        SyncJmsResource resource = createResource(container.createActivationSpec());
+
+        resource.getDeliveryHelper().deliverBatch(batch(3), null);
+
+        assertEquals(3, container.getEndpointRecorder().count("onMessage"));
+        assertEquals(0, tx.count("setRollbackOnly"));
+        assertEquals(0, tm.count("setRollbackOnly"));
+    }
+
+    public void testBatchRolledBackWhenDeliveryFails() throws Exception {
+        SyncJmsResource resource = createResource(container.createActivationSpec());
+        final int[] n = new int[1];
+        container.getEndpointRecorder().on("onMessage", new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                if (++n[0] == 2) {
+                    throw new RuntimeException("Fails on purpose");
+                }
+                return null;
+            }
+        });
+
+        resource.getDeliveryHelper().deliverBatch(batch(3), null);
+
+        assertEquals(2, n[0]);
+        assertEquals(1, tx.count("setRollbackOnly"));
+    }
+
+    /**
+     * The transaction was moved to a different thread by the endpoint and
+     * cannot be taken back: the messages delivered so far must not commit.
+     */
+    public void testBatchRolledBackWhenTransactionCannotBeResumed() throws Exception {
+        SyncJmsResource resource = createResource(container.createActivationSpec());
+        final Transaction transaction = tx.proxy(Transaction.class);
+        final int[] n = new int[1];
+        tm.on("getTransaction", new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                return (++n[0] == 1) ? transaction : null;
+            }
+        });
+        tm.fails("resume", new InvalidTransactionException("Fails on purpose"));
+
+        resource.getDeliveryHelper().deliverBatch(batch(2), null);
+
+        assertEquals(2, container.getEndpointRecorder().count("onMessage"));
+        assertEquals(1, tm.count("resume"));
+        assertEquals(1, tx.count("setRollbackOnly"));
+    }
+
+    public void testHUACommitsAcknowledgedMessage() throws Exception {
+        SyncJmsResource resource = createHUAResource(60, new Recorder.Answer() {
+            public Object answer(Object[] args) throws Exception {
+                ((Message) args[0]).acknowledge();
+                return null;
+            }
+        });
+
+        resource.getDeliveryHelper().deliver(FakeProvider.message(), null);
+
+        assertEquals(1, sessionRecorder(resource).count("commit"));
+        assertEquals(0, sessionRecorder(resource).count("rollback"));
+    }
+
+    /**
+     * The endpoint hands the message off to another thread, which
+     * acknowledges it once the endpoint has returned.
+     */
+    public void testHUAWaitsForAckFromAnotherThread() throws Exception {
+        final Thread[] worker = new Thread[1];
+        SyncJmsResource resource = createHUAResource(60, new Recorder.Answer() {
+            public Object answer(final Object[] args) {
+                worker[0] = new Thread() {
+                    public void run() {
+                        try {
+                            Thread.sleep(200);
+                            ((Message) args[0]).acknowledge();
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                worker[0].start();
+                return null;
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        resource.getDeliveryHelper().deliver(FakeProvider.message(), null);
+        worker[0].join();
+
+        assertTrue(System.currentTimeMillis() - start >= 150);
+        assertEquals(1, sessionRecorder(resource).count("commit"));
+        assertEquals(0, sessionRecorder(resource).count("rollback"));
+    }
+
+    public void testHUARollsBackRollbackOnlyAck() throws Exception {
+        SyncJmsResource resource = createHUAResource(60, new Recorder.Answer() {
+            public Object answer(Object[] args) throws Exception {
+                Message m = (Message) args[0];
+                m.setBooleanProperty(WMessageIn.SETROLLBACKONLY, true);
+                m.acknowledge();
+                return null;
+            }
+        });
+
+        resource.getDeliveryHelper().deliver(FakeProvider.message(), null);
+
+        assertEquals(0, sessionRecorder(resource).count("commit"));
+        assertEquals(1, sessionRecorder(resource).count("rollback"));
+    }
+
+    public void testHUARollsBackFailedDeliveryWithoutWaiting() throws Exception {
+        SyncJmsResource resource = createHUAResource(60, new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                throw new RuntimeException("Fails on purpose");
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        resource.getDeliveryHelper().deliver(FakeProvider.message(), null);
+
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertEquals(0, sessionRecorder(resource).count("commit"));
+        assertEquals(1, sessionRecorder(resource).count("rollback"));
+    }
+
+    public void testHUARollsBackWhenAckTimesOut() throws Exception {
+        SyncJmsResource resource = createHUAResource(1, new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                return null;
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        resource.getDeliveryHelper().deliver(FakeProvider.message(), null);
+
+        assertTrue(System.currentTimeMillis() - start >= 900);
+        assertEquals(0, sessionRecorder(resource).count("commit"));
+        assertEquals(1, sessionRecorder(resource).count("rollback"));
+    }
+
+    public void testLocalTransactedCommitsDeliveredMessage() throws Exception {
+        ActivationSpec spec = container.createActivationSpec();
+        spec.setLocalTransacted(true);
+        SyncJmsResource resource = createResource(spec, false);
+
+        resource.getDeliveryHelper().deliver(FakeProvider.message(), null);
+
+        assertEquals(1, container.getEndpointRecorder().count("onMessage"));
+        assertEquals(1, sessionRecorder(resource).count("commit"));
+        assertEquals(0, sessionRecorder(resource).count("rollback"));
+    }
+
+    public void testLocalTransactedRollsBackFailedDelivery() throws Exception {
+        ActivationSpec spec = container.createActivationSpec();
+        spec.setLocalTransacted(true);
+        spec.setRedeliveryAttempts(1);
+        container.getEndpointRecorder().fails("onMessage",
+            new RuntimeException("Fails on purpose"));
+        SyncJmsResource resource = createResource(spec, false);
+
+        resource.getDeliveryHelper().deliver(FakeProvider.message(), null);
+
+        assertEquals(0, sessionRecorder(resource).count("commit"));
+        assertEquals(1, sessionRecorder(resource).count("rollback"));
+    }
+
+    /**
+     * Resource of a LocalTransacted pool whose endpoint always fails.
+     */
+    private SyncJmsResource createPoisonedResource(ActivationSpec spec) throws Exception {
+        spec.setLocalTransacted(true);
+        spec.setRedeliveryAttempts(1);
+        container.getEndpointRecorder().fails("onMessage",
+            new RuntimeException("Fails on purpose"));
+        return createResource(spec, false);
+    }
+
+    public void testLocalTransactedSendsPoisonMessageToDMD() throws Exception {
+        ActivationSpec spec = container.createActivationSpec();
+        SyncJmsResource resource = createPoisonedResource(spec);
+        // Set once the consumer is created, the DMD is passed on delivery
+        spec.setSendBadMessagesToDMD(true);
+        Recorder producer = new Recorder();
+        sessionRecorder(resource).returns("createProducer",
+            producer.proxy(MessageProducer.class));
+        Destination dmd = new FakeDestination();
+        Message m = FakeProvider.message("ID:1");
+
+        resource.getDeliveryHelper().deliver(m, dmd);
+        assertEquals(1, sessionRecorder(resource).count("rollback"));
+        assertEquals(0, producer.count("send"));
+
+        resource.getDeliveryHelper().deliver(m, dmd);
+        // Sent in the local transaction, which is committed
+        assertEquals(1, producer.count("send"));
+        assertEquals(1, sessionRecorder(resource).count("rollback"));
+        assertEquals(1, sessionRecorder(resource).count("commit"));
+        assertEquals(0, sessionRecorder(resource).count("close"));
+    }
+
+    public void testLocalTransactedUsesDeliveryCount() throws Exception {
+        SyncJmsResource resource = createPoisonedResource(container.createActivationSpec());
+        Recorder m = new Recorder();
+        m.returns("propertyExists", Boolean.TRUE);
+        m.returns("getIntProperty", Integer.valueOf(2));
+
+        resource.getDeliveryHelper().deliver(m.proxy(Message.class), null);
+
+        assertEquals(0, sessionRecorder(resource).count("rollback"));
+        assertEquals(1, sessionRecorder(resource).count("commit"));
+    }
+
+    /**
+     * Delivers n messages the way a SyncWorker does, the best of a few
+     * rounds, and returns the time per message in nanoseconds.
+     */
+    private long timePerMessage(SyncJmsResource resource, int n) throws Exception {
+        Message m = FakeProvider.message();
+        long best = Long.MAX_VALUE;
+        // The resource is created ready for the first delivery
+        resource.completeDelivery();
+        for (int round = 0; round < 5; round++) {
+            container.getEndpointRecorder().clear();
+            sessionRecorder(resource).clear();
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                resource.refreshListener();
+                resource.refresh();
+                resource.getDeliveryHelper().deliver(m, null);
+                resource.completeDelivery();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(n, container.getEndpointRecorder().count("onMessage"));
+        }
+        return best / n;
+    }
+
+    /**
+     * Cost per message of the XA, LocalTransacted and AUTO_ACKNOWLEDGE
+     * deliveries, with the fake provider and transaction manager: this is
+     * the overhead of the resource adapter, not of a real provider.
+     */
+    public void testTransactionModeThroughput() throws Exception {
+        int n = 20000;
+        long xa = timePerMessage(createResource(container.createActivationSpec()), n);
+        assertEquals(0, tx.count("setRollbackOnly"));
+
+        ActivationSpec spec = container.createActivationSpec();
+        spec.setLocalTransacted(true);
+        SyncJmsResource local = createResource(spec, false);
+        long localTx = timePerMessage(local, n);
+        assertEquals(n, sessionRecorder(local).count("commit"));
+
+        long auto = timePerMessage(createResource(container.createActivationSpec(), false), n);
+
+        System.out.println("Sync delivery, ns per message (" + n + " messages)");
+        System.out.println(String.format("  %-16s : %d", "XA", xa));
+        System.out.println(String.format("  %-16s : %d", "LocalTransacted", localTx));
+        System.out.println(String.format("  %-16s : %d", "AUTO_ACKNOWLEDGE", auto));
+    }
+
+    /**
+     * Cost per message of the HUA delivery, the endpoint acknowledging the
+     * message before it returns, against the plain non-XA delivery.
+     */
+    public void testHUAThroughput() throws Exception {
+        int n = 20000;
+        long plain = timePerMessage(createResource(container.createActivationSpec(), false), n);
+
+        SyncJmsResource hua = createHUAResource(60, new Recorder.Answer() {
+            public Object answer(Object[] args) throws Exception {
+                ((Message) args[0]).acknowledge();
+                return null;
+            }
+        });
+        long held = timePerMessage(hua, n);
+        assertEquals(n, sessionRecorder(hua).count("commit"));
+        assertEquals(0, sessionRecorder(hua).count("rollback"));
+
+        System.out.println("Sync non-XA delivery, ns per message (" + n + " messages)");
+        System.out.println(String.format("  %-16s : %d", "plain", plain));
+        System.out.println(String.format("  %-16s : %d (+%d)", "HUA", held, held - plain));
+    }
+}
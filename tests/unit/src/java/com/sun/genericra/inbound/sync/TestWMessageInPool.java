@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.inbound.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.jms.BytesMessage;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.TextMessage;
+
+import junit.framework.TestCase;
+
+import com.sun.genericra.unit.Recorder;
+
+
+/**
+ * Reuse of the HUA and batch message wrappers.
+ */
+public class TestWMessageInPool extends TestCase {
+    private WMessageInPool pool = new WMessageInPool();
+    private Acks acks = new Acks();
+
+    /**
+     * Records the acknowledgements, true for a rollback only one.
+     */
+    static class Acks extends AckHandler {
+        List<Boolean> acks = new ArrayList<Boolean>();
+
+        public void ack(boolean isRollbackOnly, Message m) throws JMSException {
+            acks.add(Boolean.valueOf(isRollbackOnly));
+        }
+    }
+
+    private static TextMessage text() {
+        return new Recorder().proxy(TextMessage.class);
+    }
+
+    public void testAcknowledgedWrapperIsReusedReset() throws Exception {
+        WMessageIn first = pool.wrap(text(), acks, 0, 2);
+        first.setBooleanProperty(WMessageIn.SETROLLBACKONLY, true);
+        first.acknowledge();
+        pool.recycle();
+
+        TextMessage m = text();
+        Acks next = new Acks();
+        WMessageIn w = pool.wrap(m, next, 1, 3);
+
+        assertSame(first, w);
+        assertTrue(w instanceof TextMessage);
+        assertSame(m, w.getWrappedObject());
+        assertEquals(Integer.valueOf(1), w.getObjectProperty(WMessageIn.IBATCH));
+        assertEquals(Integer.valueOf(3), w.getObjectProperty(WMessageIn.BATCHSIZE));
+        assertFalse(w.isAckCompleted());
+
+        // Neither the rollback only flag nor the acknowledgement carry over
+        w.acknowledge();
+        assertEquals(1, acks.acks.size());
+        assertEquals(1, next.acks.size());
+        assertEquals(Boolean.FALSE, next.acks.get(0));
+    }
+
+    public void testUnacknowledgedWrapperIsNotReused() throws Exception {
+        TextMessage m = text();
+        WMessageIn first = pool.wrap(m, acks, -1, 0);
+        pool.recycle();
+
+        WMessageIn w = pool.wrap(text(), new Acks(), -1, 0);
+
+        assertNotSame(first, w);
+        // The application may still acknowledge the first message
+        assertSame(m, first.getWrappedObject());
+        first.acknowledge();
+        assertEquals(1, acks.acks.size());
+    }
+
+    public void testRecycledWrapperReleasesMessage() throws Exception {
+        WMessageIn w = pool.wrap(text(), acks, -1, 0);
+        w.acknowledge();
+
+        pool.recycle();
+
+        assertNull(w.getWrappedObject());
+    }
+
+    public void testWrapperIsOnlyReusedForSameType() throws Exception {
+        WMessageIn first = pool.wrap(text(), acks, -1, 0);
+        first.acknowledge();
+        pool.recycle();
+
+        WMessageIn w = pool.wrap(new Recorder().proxy(BytesMessage.class), acks, -1, 0);
+
+        assertNotSame(first, w);
+        assertTrue(w instanceof BytesMessage);
+        assertSame(first, pool.wrap(text(), acks, -1, 0));
+    }
+
+    public void testWrappedMessageIsUnwrapped() throws Exception {
+        TextMessage m = text();
+        WMessageIn w = pool.wrap(m, acks, -1, 0);
+
+        WMessageIn again = pool.wrap(w, acks, 0, 1);
+
+        assertNotSame(w, again);
+        assertSame(m, again.getWrappedObject());
+    }
+
+    /**
+     * Bytes allocated per message and time per message of the pooled
+     * wrapping path, against a new WTextMessageIn/WBytesMessageIn per
+     * message as before the pool. Best of a few rounds.
+     */
+    public void testWrappingAllocation() throws Exception {
+        int n = 100000;
+        Message[] messages = { text(), new Recorder().proxy(BytesMessage.class) };
+        AckHandler ack = new AckHandler() {
+            public void ack(boolean isRollbackOnly, Message m) {
+                // nothing to do
+            }
+        };
+        WMessageIn[] sink = new WMessageIn[1];
+        long[] pooled = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] perMessage = { Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int round = 0; round < 5; round++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                WMessageIn w = pool.wrap(messages[i & 1], ack, -1, 0);
+                w.acknowledge();
+                sink[0] = w;
+                pool.recycle();
+            }
+            pooled[0] = Math.min(pooled[0], System.nanoTime() - start);
+            pooled[1] = Math.min(pooled[1], allocatedBytes() - bytes);
+
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                Message m = messages[i & 1];
+                WMessageIn w = (m instanceof TextMessage) ?
+                    new WTextMessageIn((TextMessage) m, ack, -1) :
+                    new WBytesMessageIn((BytesMessage) m, ack, -1);
+                w.setBatchSize(0);
+                w.acknowledge();
+                sink[0] = w;
+            }
+            perMessage[0] = Math.min(perMessage[0], System.nanoTime() - start);
+            perMessage[1] = Math.min(perMessage[1], allocatedBytes() - bytes);
+        }
+        System.out.println("HUA message wrapping, per message (" + n + " messages)");
+        System.out.println(String.format("  %-16s : %d ns, %d bytes", "pooled",
+            pooled[0] / n, pooled[1] / n));
+        System.out.println(String.format("  %-16s : %d ns, %d bytes", "new per message",
+            perMessage[0] / n, perMessage[1] / n));
+        if (allocatedBytes() >= 0) {
+            assertTrue(pooled[1] < perMessage[1]);
+        }
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, -1 if the JVM does not
+     * tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+            java.lang.management.ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.unit;
+
+import jakarta.jms.Connection;
+import jakarta.jms.ConnectionFactory;
+import jakarta.jms.JMSContext;
+import jakarta.jms.JMSException;
+import jakarta.jms.XAConnection;
+import jakarta.jms.XAConnectionFactory;
+import jakarta.jms.XAJMSContext;
+
+
+/**
+ * Connection factory of the fake JMS provider, created by the resource
+ * adapter through its class name. All the connections it returns are the
+ * connection of the current FakeProvider.
+ */
+public class FakeConnectionFactory implements ConnectionFactory, XAConnectionFactory {
+    public Connection createConnection() throws JMSException {
+        return FakeProvider.current().createConnection();
+    }
+
+    public Connection createConnection(String user, String password) throws JMSException {
+        return createConnection();
+    }
+
+    public XAConnection createXAConnection() throws JMSException {
+        return (XAConnection) createConnection();
+    }
+
+    public XAConnection createXAConnection(String user, String password)
+        throws JMSException {
+        return createXAConnection();
+    }
+
+    public JMSContext createContext() {
+        throw new UnsupportedOperationException();
+    }
+
+    public JMSContext createContext(String user, String password) {
+        throw new UnsupportedOperationException();
+    }
+
+    public JMSContext createContext(String user, String password, int mode) {
+        throw new UnsupportedOperationException();
+    }
+
+    public JMSContext createContext(int mode) {
+        throw new UnsupportedOperationException();
+    }
+
+    public XAJMSContext createXAContext() {
+        throw new UnsupportedOperationException();
+    }
+
+    public XAJMSContext createXAContext(String user, String password) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+
+package com.sun.genericra.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+
+import jakarta.resource.spi.BootstrapContext;
+import jakarta.resource.spi.endpoint.MessageEndpoint;
+import jakarta.resource.spi.endpoint.MessageEndpointFactory;
+import jakarta.resource.spi.work.Work;
+import jakarta.resource.spi.work.WorkManager;
+
+import javax.transaction.xa.XAResource;
+
+import com.sun.genericra.GenericJMSRA;
+import com.sun.genericra.inbound.ActivationSpec;
+import com.sun.genericra.util.Constants;
+
+
+/**
+ * Stands in for the application server: starts the resource adapter with
+ * a BootstrapContext whose WorkManager runs the works in the calling
+ * thread, and provides the MessageEndpointFactory of an MDB. All the
+ * endpoints share one Recorder, so that a test can make onMessage() fail.
+ */
+public class FakeContainer {
+    private GenericJMSRA ra;
+    private Timer timer = new Timer(true);
+    private Recorder workManager = new Recorder();
+    private Recorder factory = new Recorder();
+    private Recorder endpoint = new Recorder();
+    private List<XAResource> endpointXAResources = new ArrayList<XAResource>();
+
+    public FakeContainer() throws Exception {
+        Recorder.Answer run = new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                ((Work) args[0]).run();
+                return null;
+            }
+        };
+        workManager.on("doWork", run).on("scheduleWork", run).on("startWork",
+            new Recorder.Answer() {
+                public Object answer(Object[] args) {
+                    ((Work) args[0]).run();
+                    return Long.valueOf(0);
+                }
+            });
+
+        Recorder context = new Recorder();
+        context.returns("getWorkManager", workManager.proxy(WorkManager.class));
+        context.returns("createTimer", timer);
+
+        factory.on("createEndpoint", new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                synchronized (endpointXAResources) {
+                    endpointXAResources.add((XAResource) args[0]);
+                }
+                return endpoint.proxy(MessageEndpoint.class, jakarta.jms.MessageListener.class);
+            }
+        });
+
+        ra = new GenericJMSRA();
+        ra.start(context.proxy(BootstrapContext.class));
+    }
+
+    /**
+     * Activation spec using the fake JMS provider. Deployment is probed
+     * once, without waiting, and stopping does not wait for the
+     * ServerSessions left checked out by a test.
+     */
+    public ActivationSpec createActivationSpec() {
+        ActivationSpec spec = new ActivationSpec();
+        spec.setResourceAdapter(ra);
+        spec.setProviderIntegrationMode(Constants.JAVABEAN_BASED);
+        spec.setConnectionFactoryClassName(FakeConnectionFactory.class.getName());
+        spec.setXAConnectionFactoryClassName(FakeConnectionFactory.class.getName());
+        spec.setUnifiedDestinationClassName(FakeDestination.class.getName());
+        spec.setMDBDeploymentRetryAttempt(1);
+        spec.setMDBDeploymentRetryInterval(0);
+        spec.setEndpointReleaseTimeout(0);
+        return spec;
+    }
+
+    public GenericJMSRA getResourceAdapter() {
+        return ra;
+    }
+
+    public MessageEndpointFactory getEndpointFactory() {
+        return factory.proxy(MessageEndpointFactory.class);
+    }
+
+    /**
+     * Makes isDeliveryTransacted() of the endpoint factory return the
+     * given value.
+     */
+    public void setDeliveryTransacted(boolean transacted) {
+        factory.returns("isDeliveryTransacted", Boolean.valueOf(transacted));
+    }
+
+    /**
+     * Calls made on the MessageEndpointFactory.
+     */
+    public Recorder getFactoryRecorder() {
+        return factory;
+    }
+
+    /**
+     * Calls made on all the endpoints (beforeDelivery, onMessage,
+     * afterDelivery, release).
+     */
+    public Recorder getEndpointRecorder() {
+        return endpoint;
+    }
+
+    /**
+     * Calls made on the WorkManager.
+     */
+    public Recorder getWorkManagerRecorder() {
+        return workManager;
+    }
+
+    /**
+     * XAResources given to createEndpoint(), in order. The deployment
+     * probe passes null.
+     */
+    public List<XAResource> getEndpointXAResources() {
+        synchronized (endpointXAResources) {
+            return new ArrayList<XAResource>(endpointXAResources);
+        }
+    }
+
+    public void stop() {
+        ra.stop();
+        timer.cancel();
+    }
+}
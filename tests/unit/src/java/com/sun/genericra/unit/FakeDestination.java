@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.unit;
+
+import jakarta.jms.Queue;
+
+
+/**
+ * Destination of the fake JMS provider, created by the resource adapter
+ * through its class name.
+ */
+public class FakeDestination implements Queue {
+    public String getQueueName() {
+        return "FakeQueue";
+    }
+
+    public String toString() {
+        return getQueueName();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.jms.Connection;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.XAConnection;
+
+
+/**
+ * In-memory JMS provider used by the unit tests. The administered objects
+ * of the resource adapter are created by class name (FakeConnectionFactory,
+ * FakeDestination), so they reach the provider of the running test through
+ * a static reference.
+ */
+public class FakeProvider {
+    private static FakeProvider current = new FakeProvider();
+
+    private Recorder connectionRecorder = new Recorder();
+    private Connection connection;
+    private List<FakeSession> sessions = new ArrayList<FakeSession>();
+    private int connectionsLeft = Integer.MAX_VALUE;
+
+    public FakeProvider() {
+        connection = (Connection) connectionRecorder.proxy(XAConnection.class);
+        Recorder.Answer createSession = new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                FakeSession s = new FakeSession();
+                synchronized (sessions) {
+                    sessions.add(s);
+                }
+                return s.getSession();
+            }
+        };
+        connectionRecorder.on("createSession", createSession);
+        connectionRecorder.on("createXASession", createSession);
+    }
+
+    /**
+     * Installs a new provider for the running test.
+     */
+    public static FakeProvider reset() {
+        current = new FakeProvider();
+        return current;
+    }
+
+    public static FakeProvider current() {
+        return current;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * The connection factory fails once n more connections have been
+     * created.
+     */
+    public synchronized void failConnectionsAfter(int n) {
+        connectionsLeft = n;
+    }
+
+    synchronized Connection createConnection() throws JMSException {
+        if (connectionsLeft <= 0) {
+            throw new JMSException("No more connections");
+        }
+        connectionsLeft--;
+        return connection;
+    }
+
+    public Recorder getConnectionRecorder() {
+        return connectionRecorder;
+    }
+
+    public List<FakeSession> getSessions() {
+        synchronized (sessions) {
+            return new ArrayList<FakeSession>(sessions);
+        }
+    }
+
+    /**
+     * Returns the fake wrapping the given session proxy.
+     */
+    public FakeSession sessionOf(Object session) {
+        for (FakeSession s : getSessions()) {
+            if (s.getSession() == session) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a message whose JMSRedelivered header can be set and read
+     * back.
+     */
+    public static Message message() {
+        return message(null);
+    }
+
+    /**
+     * Same as message(), with the given JMSMessageID.
+     */
+    public static Message message(String id) {
+        final boolean[] redelivered = new boolean[1];
+        Recorder r = new Recorder();
+        r.returns("getJMSMessageID", id);
+        r.on("setJMSRedelivered", new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                redelivered[0] = ((Boolean) args[0]).booleanValue();
+                return null;
+            }
+        });
+        r.on("getJMSRedelivered", new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                return Boolean.valueOf(redelivered[0]);
+            }
+        });
+        return r.proxy(Message.class);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.jms.Message;
+import jakarta.jms.MessageListener;
+import jakarta.jms.Session;
+import jakarta.jms.XASession;
+
+import javax.transaction.xa.XAResource;
+
+
+/**
+ * Session of the fake JMS provider. Messages loaded into the session are
+ * delivered to its MessageListener by run(), the way a provider runs the
+ * ServerSession of a ConnectionConsumer.
+ */
+public class FakeSession {
+    private Recorder recorder = new Recorder();
+    private Recorder xaRecorder = new Recorder();
+    private Session session;
+    private XAResource xaResource;
+    private volatile MessageListener listener;
+    private List<Message> loaded = new ArrayList<Message>();
+
+    FakeSession() {
+        session = (Session) recorder.proxy(XASession.class);
+        xaResource = xaRecorder.proxy(XAResource.class);
+        recorder.on("setMessageListener", new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                listener = (MessageListener) args[0];
+                return null;
+            }
+        });
+        recorder.on("getMessageListener", new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                return listener;
+            }
+        });
+        recorder.on("run", new Recorder.Answer() {
+            public Object answer(Object[] args) {
+                List<Message> messages = null;
+                synchronized (loaded) {
+                    messages = new ArrayList<Message>(loaded);
+                    loaded.clear();
+                }
+                for (Message m : messages) {
+                    listener.onMessage(m);
+                }
+                return null;
+            }
+        });
+        recorder.returns("getXAResource", xaResource);
+        recorder.returns("getSession", session);
+        recorder.returns("getTransacted", Boolean.FALSE);
+    }
+
+    /**
+     * Messages delivered by the next run() of the session.
+     */
+    public void load(Message... messages) {
+        synchronized (loaded) {
+            for (Message m : messages) {
+                loaded.add(m);
+            }
+        }
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public MessageListener getMessageListener() {
+        return listener;
+    }
+
+    /**
+     * Calls made on the session.
+     */
+    public Recorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Calls made on the XAResource of the session.
+     */
+    public Recorder getXARecorder() {
+        return xaRecorder;
+    }
+}
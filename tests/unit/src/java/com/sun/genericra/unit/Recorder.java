@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2004, 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Distribution License v. 1.0, which is available at
+ * http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * SPDX-License-Identifier: BSD-3-Clause
+ */
+
+package com.sun.genericra.unit;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Dynamic proxy that records the calls made on it. Methods without an
+ * answer return the default value of their return type, so any JMS or
+ * JCA interface can be faked with the few methods a test cares about.
+ */
+public class Recorder implements InvocationHandler {
+    /**
+     * Result of a faked method.
+     */
+    public interface Answer {
+        Object answer(Object[] args) throws Throwable;
+    }
+
+    private List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+    private Map<String, Answer> answers = new HashMap<String, Answer>();
+
+    /**
+     * Creates a proxy implementing the given interfaces.
+     */
+    public Object proxy(Class<?>... types) {
+        return Proxy.newProxyInstance(Recorder.class.getClassLoader(), types, this);
+    }
+
+    public <T> T proxy(Class<T> type) {
+        return type.cast(proxy(new Class<?>[] { type }));
+    }
+
+    public synchronized Recorder on(String method, Answer answer) {
+        answers.put(method, answer);
+        return this;
+    }
+
+    /**
+     * Current answer of the given method, or null.
+     */
+    public synchronized Answer answerOf(String method) {
+        return answers.get(method);
+    }
+
+    public Recorder returns(String method, final Object value) {
+        return on(method, new Answer() {
+            public Object answer(Object[] args) {
+                return value;
+            }
+        });
+    }
+
+    public Recorder fails(String method, final Exception e) {
+        return on(method, new Answer() {
+            public Object answer(Object[] args) throws Exception {
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Number of calls made to the given method.
+     */
+    public int count(String method) {
+        int n = 0;
+        synchronized (calls) {
+            for (String call : calls) {
+                if (call.equals(method)) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    public List<String> calls() {
+        synchronized (calls) {
+            return new ArrayList<String>(calls);
+        }
+    }
+
+    public void clear() {
+        calls.clear();
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (method.getDeclaringClass() == Object.class) {
+            if (name.equals("equals")) {
+                return Boolean.valueOf(proxy == args[0]);
+            } else if (name.equals("hashCode")) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            return "Fake" + method.getDeclaringClass().getSimpleName() + "@" +
+                Integer.toHexString(System.identityHashCode(proxy));
+        }
+        calls.add(name);
+        Answer answer = null;
+        synchronized (this) {
+            answer = answers.get(name);
+        }
+        if (answer != null) {
+            try {
+                return answer.answer(args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+        return defaultValue(method.getReturnType());
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || (type == void.class)) {
+            return null;
+        } else if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == char.class) {
+            return Character.valueOf((char) 0);
+        } else if (type == byte.class) {
+            return Byte.valueOf((byte) 0);
+        } else if (type == short.class) {
+            return Short.valueOf((short) 0);
+        } else if (type == int.class) {
+            return Integer.valueOf(0);
+        } else if (type == long.class) {
+            return Long.valueOf(0);
+        } else if (type == float.class) {
+            return Float.valueOf(0);
+        }
+        return Double.valueOf(0);
+    }
+}